@@ -0,0 +1,284 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the single stages of the formatter and whole files on generated theories of increasing size. Besides the time per
+ * operation, the time per input line is reported, which stays roughly constant for stages that scale linearly and grows for stages that
+ * do not.
+ * <p>
+ * Usage: {@code java FormatterBenchmark [--sizes 1000,10000,100000] [--seed 42] [--warmup 3] [--iterations 5]}
+ */
+final class FormatterBenchmark {
+
+    /**
+     * A single benchmarked stage.
+     */
+    @FunctionalInterface
+    private interface Stage {
+
+        /**
+         * Runs the stage once over the whole input.
+         *
+         * @param input the input prepared for the stage
+         * @return a value depending on the result, so the work cannot be optimized away
+         */
+        long run(Input input) throws IOException;
+    }
+
+    /**
+     * The input of all stages for one theory size.
+     *
+     * @param size          the requested number of lines
+     * @param originalText  the generated theory
+     * @param originalLines the generated lines
+     * @param rawLines      the generated lines, trimmed as the formatter does before normalizing them
+     * @param insideQuotes  for every raw line, whether it starts inside quotes
+     * @param cleanLines    the formatted lines without indentation, as they are passed to the indenter
+     * @param file          the generated theory on disk
+     */
+    private record Input(int size, String originalText, List<String> originalLines, List<String> rawLines, boolean[] insideQuotes, List<String> cleanLines, Path file) {
+    }
+
+    private static final Writer DISCARDING_WRITER = Writer.nullWriter();
+    private static final IsabelleFormatter FORMATTER = new IsabelleFormatter();
+    private static final TheoryLinter LINTER = new TheoryLinter(FormatterConfig.defaults());
+
+    private FormatterBenchmark() {
+    }
+
+    /**
+     * Runs all stages for all sizes and prints one line per stage and size.
+     *
+     * @param args the optional sizes, seed, number of warmup iterations and number of measured iterations
+     */
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {1_000, 10_000, 100_000};
+        long seed = 42;
+        int warmup = 3;
+        int iterations = 5;
+        for (int i = 0; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "--sizes" -> sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                case "--warmup" -> warmup = Integer.parseInt(args[i + 1]);
+                case "--iterations" -> iterations = Integer.parseInt(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        Path directory = Files.createTempDirectory("formatter-benchmark");
+        System.out.printf(Locale.ROOT, "%-48s %10s %12s %12s%n", "stage", "lines", "ms/op", "ns/line");
+        for (int size : sizes) {
+            Input input = prepare(directory, size, seed);
+            measure("normalizeSpaces", input, FormatterBenchmark::normalizeSpaces, warmup, iterations);
+            measure("breakLine", input, FormatterBenchmark::breakLine, warmup, iterations);
+            measure("removeUnnecessaryBracketsAroundCompleteString", input, FormatterBenchmark::removeBrackets, warmup, iterations);
+            measure("indentLines", input, FormatterBenchmark::indentLines, warmup, iterations);
+            measure("formatLines (in memory)", input, FormatterBenchmark::formatLines, warmup, iterations);
+            measure("formatLines (parallel chunks)", input, FormatterBenchmark::formatChunks, warmup, iterations);
+            measure("lint", input, FormatterBenchmark::lint, warmup, iterations);
+            measure("copyLines (streams)", input, FormatterBenchmark::copyLinesWithStreams, warmup, iterations);
+            measure("copyLines (reused buffers)", input, FormatterBenchmark::copyLinesWithBuffers, warmup, iterations);
+            measure("processFile (streams)", input, FormatterBenchmark::processFileWithStreams, warmup, iterations);
+            measure("processFile", input, FormatterBenchmark::processFile, warmup, iterations);
+        }
+    }
+
+    /**
+     * Generates the theory of the given size and derives the inputs of the single stages from it.
+     *
+     * @param directory the directory to write the theory to
+     * @param size      the number of lines
+     * @param seed      the seed of the generator
+     * @return the prepared input
+     */
+    private static Input prepare(Path directory, int size, long seed) throws IOException {
+        List<String> lines = TheoryGenerator.generate("Benchmark" + size, size, seed);
+        Path file = directory.resolve("Benchmark" + size + ".thy");
+        Files.write(file, lines);
+
+        List<String> rawLines = new ArrayList<>();
+        boolean[] insideQuotes = new boolean[lines.size()];
+        boolean quoted = false;
+        for (String line : lines) {
+            insideQuotes[rawLines.size()] = quoted;
+            rawLines.add(line.trim());
+            if (line.chars().filter(ch -> ch == '"').count() % 2 == 1) {
+                quoted = !quoted;
+            }
+        }
+
+        List<String> cleanLines = new ArrayList<>();
+        for (String line : Files.readAllLines(format(file))) {
+            cleanLines.add(line.trim());
+        }
+
+        return new Input(size, String.join("\n", lines), lines, rawLines, insideQuotes, cleanLines, file);
+    }
+
+    /**
+     * Formats the file once and returns the path of its clean file.
+     *
+     * @param file the file to format
+     * @return the clean file
+     */
+    private static Path format(Path file) throws IOException {
+        Main.processFile(file);
+        return Main.cleanPathFor(file);
+    }
+
+    /**
+     * Runs a stage repeatedly and prints the average time of the measured iterations.
+     *
+     * @param name       the name of the stage
+     * @param input      the input of the stage
+     * @param stage      the stage to measure
+     * @param warmup     the number of iterations run before measuring
+     * @param iterations the number of measured iterations
+     */
+    private static void measure(String name, Input input, Stage stage, int warmup, int iterations) throws IOException {
+        long sink = 0;
+        for (int i = 0; i < warmup; i++) {
+            sink += stage.run(input);
+        }
+
+        List<Long> durations = new ArrayList<>();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            sink += stage.run(input);
+            durations.add(System.nanoTime() - start);
+        }
+        Collections.sort(durations);
+
+        double median = durations.get(durations.size() / 2);
+        System.out.printf(Locale.ROOT, "%-48s %10d %12.3f %12.1f%n", name, input.size(), median / 1_000_000, median / input.rawLines().size());
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static long normalizeSpaces(Input input) {
+        long result = 0;
+        for (int i = 0; i < input.rawLines().size(); i++) {
+            result += IsabelleFormatter.normalizeSpaces(input.rawLines().get(i), input.insideQuotes()[i]).length();
+        }
+        return result;
+    }
+
+    private static long breakLine(Input input) {
+        long result = 0;
+        for (String line : input.rawLines()) {
+            PendingLines fragments = new PendingLines(Collections.emptyIterator());
+            result += FORMATTER.breakLine(line, fragments).length();
+            while (fragments.hasNext()) {
+                result += fragments.next().length();
+            }
+        }
+        return result;
+    }
+
+    private static long removeBrackets(Input input) {
+        long result = 0;
+        List<String> lines = input.rawLines();
+        for (int i = 0; i < lines.size(); i++) {
+            PendingLines following = new PendingLines(lines.subList(i + 1, lines.size()).iterator());
+            try {
+                result += IsabelleFormatter.removeUnnecessaryBracketsAroundCompleteString(lines.get(i), following, input.insideQuotes()[i]).length();
+            } catch (IndexOutOfBoundsException e) {
+                // A quoted term that is not closed before the end of the file
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private static long indentLines(Input input) {
+        long[] result = {0};
+        LineIndenter indenter = new LineIndenter(FormatterConfig.defaults().indentionSize(), new KeywordClassifier(FormatterConfig.defaults()), new LineSummary.Cache(), line -> result[0] += line.length());
+        input.cleanLines().forEach(indenter::accept);
+        indenter.finish();
+        return result[0];
+    }
+
+    private static long formatLines(Input input) throws IOException {
+        FORMATTER.format(new StringReader(input.originalText()), DISCARDING_WRITER);
+        return input.originalText().length();
+    }
+
+    private static long formatChunks(Input input) throws IOException {
+        FORMATTER.format(input.originalLines(), DISCARDING_WRITER, new FormatStatistics("<benchmark>"), 1_000);
+        return input.originalText().length();
+    }
+
+    private static long lint(Input input) throws IOException {
+        return LINTER.lint(input.file()).size();
+    }
+
+    private static long processFile(Input input) throws IOException {
+        Main.processFile(input.file());
+        return Files.size(Main.cleanPathFor(input.file()));
+    }
+
+    /**
+     * Formats the file the way {@link Main#processFile(Path)} did before {@link TheoryBuffers}, reading through a buffered reader and
+     * writing through a buffered writer, to compare the throughput of both ways.
+     */
+    private static long processFileWithStreams(Input input) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(input.file());
+             AtomicFiles.ReplacingOutputStream output = AtomicFiles.replace(Main.cleanPathFor(input.file()))) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            FORMATTER.format(reader, writer);
+            writer.flush();
+            output.commit();
+        }
+        return Files.size(Main.cleanPathFor(input.file()));
+    }
+
+    /**
+     * Copies the lines of the file to its clean file through a buffered reader and a buffered writer, measuring only the I/O.
+     */
+    private static long copyLinesWithStreams(Input input) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(input.file());
+             AtomicFiles.ReplacingOutputStream output = AtomicFiles.replace(Main.cleanPathFor(input.file()))) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(line);
+                writer.write(System.lineSeparator());
+            }
+            writer.flush();
+            output.commit();
+        }
+        return Files.size(Main.cleanPathFor(input.file()));
+    }
+
+    /**
+     * Copies the lines of the file to its clean file through {@link TheoryBuffers}, measuring only the I/O.
+     */
+    private static long copyLinesWithBuffers(Input input) throws IOException {
+        TheoryBuffers buffers = TheoryBuffers.forCurrentThread();
+        try (TheoryBuffers.LineReader lines = buffers.readLines(input.file());
+             AtomicFiles.ReplacingOutputStream output = AtomicFiles.replace(Main.cleanPathFor(input.file()))) {
+            Writer writer = buffers.outputWriter(output);
+            while (lines.hasNext()) {
+                writer.write(lines.next());
+                writer.write(System.lineSeparator());
+            }
+            writer.close();
+            output.commit();
+        }
+        return Files.size(Main.cleanPathFor(input.file()));
+    }
+}
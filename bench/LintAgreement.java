@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that {@code --lint} reports exactly the changes of the rules it stands for, by formatting a corpus and comparing the number of
+ * lines marked by {@code add-apply-auto-bonk} and solver helpers removed by {@code remove-solver-helpers} with the number of findings of
+ * each rule.
+ * <p>
+ * The corpus consists of generated theories with left over solver helpers, {@code apply auto} and look-alikes in comments, cartouches
+ * and quotes inserted into their proofs, the training theory of {@code bin/isabelle-format} if it is found, and a theory of cases the
+ * linter got wrong before. Every theory whose counts differ is printed and makes the process exit with status 1.
+ * <p>
+ * The formatter still marks {@code apply auto} and removes a solver helper ending a line inside comments and quotes, which the linter
+ * deliberately does not report, so the corpus leaves these cases out.
+ * <p>
+ * Usage: {@code java LintAgreement [--theories 20] [--lines 2000] [--seed 42]}
+ */
+final class LintAgreement {
+
+    /**
+     * The lines inserted after proof steps of the generated theories.
+     */
+    private static final String[] INSERTIONS = {
+            "sledgehammer",
+            "try0",
+            "nitpick [card = 3]",
+            "quickcheck ([expect = none])",
+            "apply auto",
+            "apply   (auto simp: algebra_simps)",
+            "apply auto (* TODO *)",
+            "apply (auto simp: foo) try0",
+            "apply simp try",
+            "(* try sledgehammer here *)",
+            "text \\<open>try sledgehammer, then apply auto\\<close>",
+            "using \"try = try\" by simp",
+    };
+
+    /**
+     * Cases that used to be reported without the formatter changing them, or the other way round.
+     */
+    private static final List<String> REVIEWED = List.of(
+            "theory Reviewed",
+            "  imports Main",
+            "begin",
+            "",
+            "text \\<open>Run try, sledgehammer or apply auto here.\\<close>",
+            "",
+            "(* Neither sledgehammer nor",
+            "   try found a proof. *)",
+            "",
+            "lemma b: \"try = try\"",
+            "  apply (auto simp: foo) try0",
+            "  done",
+            "",
+            "lemma c: \"sledgehammer = x\"",
+            "  apply(auto)",
+            "  apply auto",
+            "  try",
+            "  done",
+            "",
+            "end");
+
+    private LintAgreement() {
+    }
+
+    /**
+     * Checks every theory of the corpus and prints one line per theory.
+     *
+     * @param args the optional number of generated theories, their number of lines and the seed
+     */
+    public static void main(String[] args) throws IOException {
+        int theories = 20;
+        int lines = 2000;
+        long seed = 42;
+        for (int i = 0; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "--theories" -> theories = Integer.parseInt(args[i + 1]);
+                case "--lines" -> lines = Integer.parseInt(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        IsabelleFormatter formatter = new IsabelleFormatter();
+        TheoryLinter linter = new TheoryLinter(FormatterConfig.defaults());
+        boolean agrees = check(formatter, linter, "Reviewed", REVIEWED);
+        Path training = Path.of("bin", "training", "Training.thy.txt");
+        if (Files.exists(training)) {
+            agrees &= check(formatter, linter, training.toString(), Files.readAllLines(training));
+        }
+        Random random = new Random(seed);
+        for (int i = 0; i < theories; i++) {
+            String name = "Lint" + i;
+            agrees &= check(formatter, linter, name, withInsertions(TheoryGenerator.generate(name, lines, seed + i), random));
+        }
+        if (!agrees) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Inserts a random line of {@link #INSERTIONS} after about every third proof step using {@code apply}.
+     *
+     * @param theory the generated theory
+     * @param random the source of the choices
+     * @return the theory with the inserted lines
+     */
+    private static List<String> withInsertions(List<String> theory, Random random) {
+        List<String> lines = new ArrayList<>(theory.size());
+        for (String line : theory) {
+            lines.add(line);
+            if (line.trim().startsWith("apply") && random.nextInt(3) == 0) {
+                lines.add("  " + INSERTIONS[random.nextInt(INSERTIONS.length)]);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Formats and lints a theory and prints the counts of both.
+     *
+     * @return true if the counts agree, false otherwise
+     */
+    private static boolean check(IsabelleFormatter formatter, TheoryLinter linter, String name, List<String> theory)
+            throws IOException {
+        FormatStatistics statistics = new FormatStatistics(name);
+        Writer clean = new StringWriter();
+        formatter.format(theory, clean, statistics);
+
+        long applyAutos = 0;
+        long solverHelpers = 0;
+        for (TheoryLinter.Finding finding : linter.lint(Path.of(name), String.join("\n", theory))) {
+            if (finding.rule() == TheoryLinter.Rule.APPLY_AUTO) {
+                applyAutos++;
+            } else {
+                solverHelpers++;
+            }
+        }
+
+        boolean agrees = applyAutos == statistics.applyAutoMarkers() && solverHelpers == statistics.solverHelpersStripped();
+        System.out.printf(Locale.ROOT, "%-30s apply-auto %4d/%4d  solver-helper %4d/%4d  %s%n", name, applyAutos, statistics.applyAutoMarkers(),
+                solverHelpers, statistics.solverHelpersStripped(), agrees ? "ok" : "MISMATCH");
+        return agrees;
+    }
+}
@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
+
+/**
+ * Checks that the formatter scales linearly, is idempotent and finishes on pathological input, to catch passes that scan ahead without a
+ * bound or rescan what they already processed.
+ * <p>
+ * Generated theories of increasing size are formatted in memory. The time per input line must not grow by more than the tolerated
+ * factor from one size to the next, and formatting the formatted theory again must not change it. The pathological theories, such as
+ * unclosed cartouches or deeply nested brackets, must be formatted or rejected within the time budget. Every violation is printed and
+ * makes the process exit with status 1.
+ * <p>
+ * Usage: {@code java ScalingSuite [--sizes 100,1000,10000,100000] [--seed 42] [--iterations 3] [--tolerance 3] [--pathological-lines 10000]
+ * [--budget 10000]}
+ */
+final class ScalingSuite {
+
+    /**
+     * Below this time per run, the measurement is dominated by noise and not used to judge the growth to the next size.
+     */
+    private static final long MIN_MEASURABLE_NANOS = 5_000_000;
+    private static final IsabelleFormatter FORMATTER = new IsabelleFormatter();
+
+    /**
+     * The measurement of one theory size.
+     *
+     * @param size       the requested number of lines
+     * @param lines      the number of generated lines
+     * @param nanos      the median time to format the theory
+     * @param idempotent whether formatting the formatted theory leaves it unchanged
+     */
+    private record Measurement(int size, int lines, long nanos, boolean idempotent) {
+
+        double nanosPerLine() {
+            return (double) nanos / lines;
+        }
+    }
+
+    /**
+     * A theory the formatter has to finish on within the time budget, either by formatting it or by rejecting it.
+     *
+     * @param name   the name printed for the theory
+     * @param theory creates the theory for the given number of lines
+     */
+    private record Pathological(String name, IntFunction<String> theory) {
+    }
+
+    private static final List<Pathological> PATHOLOGICAL = List.of(
+            new Pathological("unclosed cartouche", lines -> withLine(lines, "text \\<open>never closed")),
+            new Pathological("unbalanced nested cartouche", lines -> withLine(lines, "text \\<open>outer \\<open>inner\\<close>")),
+            new Pathological("unclosed quote", lines -> "lemma unclosed: \"" + "a = b\n".repeat(lines)),
+            new Pathological("unclosed bracket in every quote", lines -> "lemma unclosed:\n" + "  \"(a b\n".repeat(lines)),
+            new Pathological("unclosed bracket in every lemma", lines -> {
+                StringBuilder theory = new StringBuilder();
+                for (int i = 0; i < lines; i++) {
+                    theory.append("lemma unclosed_").append(i).append(": \"(a\n");
+                }
+                return theory.toString();
+            }),
+            new Pathological("deeply nested brackets on one line", lines -> "lemma nested: \"" + "(".repeat(lines) + "x" + ")".repeat(lines)
+                    + "\"\n  by simp"),
+            // Every line of this term is indented by its depth, so the output grows quadratically with the depth
+            new Pathological("deeply nested brackets across lines", lines -> {
+                int depth = Math.min(lines, 1_000);
+                return "lemma nested: \"" + "(f\n".repeat(depth) + "x" + ")".repeat(depth) + "\"\n  by simp";
+            }),
+            new Pathological("long line of operators", lines -> "lemma long: \"" + "a+".repeat(lines) + "a = b\"\n  by simp"));
+
+    private ScalingSuite() {
+    }
+
+    /**
+     * Runs all checks and prints one line per theory size and pathological theory.
+     *
+     * @param args the optional sizes, seed, number of measured iterations, tolerated growth, size of the pathological theories and time
+     *             budget in milliseconds
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int[] sizes = {100, 1_000, 10_000, 100_000};
+        long seed = 42;
+        int iterations = 3;
+        double tolerance = 3;
+        int pathologicalLines = 10_000;
+        long budgetMillis = 10_000;
+        for (int i = 0; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "--sizes" -> sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).sorted().toArray();
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                case "--iterations" -> iterations = Integer.parseInt(args[i + 1]);
+                case "--tolerance" -> tolerance = Double.parseDouble(args[i + 1]);
+                case "--pathological-lines" -> pathologicalLines = Integer.parseInt(args[i + 1]);
+                case "--budget" -> budgetMillis = Long.parseLong(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        List<String> failures = new ArrayList<>();
+        warmUp(seed);
+
+        System.out.printf(Locale.ROOT, "%-40s %10s %12s %12s %8s%n", "theory", "lines", "ms/op", "ns/line", "result");
+        Measurement previous = null;
+        for (int size : sizes) {
+            Measurement measurement = measure(size, seed, iterations);
+            String result = measurement.idempotent() ? "ok" : "FAILED";
+            System.out.printf(Locale.ROOT, "%-40s %10d %12.3f %12.1f %8s%n", "generated", measurement.lines(), measurement.nanos() / 1e6,
+                    measurement.nanosPerLine(), result);
+            if (!measurement.idempotent()) {
+                failures.add("formatting the generated theory of " + size + " lines twice changes it");
+            }
+            if (previous != null && previous.nanos() >= MIN_MEASURABLE_NANOS) {
+                double growth = measurement.nanosPerLine() / previous.nanosPerLine();
+                if (growth > tolerance) {
+                    failures.add(String.format(Locale.ROOT, "the time per line grows by a factor of %.1f from %d to %d lines", growth,
+                            previous.lines(), measurement.lines()));
+                }
+            }
+            previous = measurement;
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pathological-theory");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Pathological pathological : PATHOLOGICAL) {
+            String theory = pathological.theory().apply(pathologicalLines);
+            int lines = (int) theory.lines().count();
+            long start = System.nanoTime();
+            Future<String> outcome = executor.submit(() -> outcome(theory));
+            String result;
+            try {
+                result = outcome.get(budgetMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                failures.add(pathological.name() + " is not finished after " + budgetMillis + " ms");
+                System.out.printf(Locale.ROOT, "%-40s %10d %12s %12s %8s%n", pathological.name(), lines, ">" + budgetMillis, "", "TIMEOUT");
+                // The formatter cannot be interrupted, so the remaining theories would only queue up behind it
+                break;
+            } catch (ExecutionException e) {
+                failures.add(pathological.name() + " fails with " + e.getCause());
+                result = "FAILED";
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "%-40s %10d %12.3f %12.1f %8s%n", pathological.name(), lines, nanos / 1e6, (double) nanos / lines,
+                    result);
+        }
+
+        if (!failures.isEmpty()) {
+            failures.forEach(failure -> System.err.println("FAILED: " + failure));
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    /**
+     * Formats a medium-sized theory a few times, so the first measured size does not pay for class loading and compilation.
+     *
+     * @param seed the seed of the generator
+     */
+    private static void warmUp(long seed) {
+        String theory = String.join("\n", TheoryGenerator.generate("WarmUp", 10_000, seed));
+        for (int i = 0; i < 3; i++) {
+            FORMATTER.format(theory);
+        }
+    }
+
+    /**
+     * Formats a generated theory repeatedly and checks that formatting its formatted version does not change it.
+     *
+     * @param size       the number of lines
+     * @param seed       the seed of the generator
+     * @param iterations the number of measured runs
+     * @return the median time and whether formatting is idempotent
+     */
+    private static Measurement measure(int size, long seed, int iterations) {
+        List<String> lines = TheoryGenerator.generate("Scaling" + size, size, seed);
+        String theory = String.join("\n", lines);
+
+        String formatted = null;
+        List<Long> durations = new ArrayList<>();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            formatted = FORMATTER.format(theory);
+            durations.add(System.nanoTime() - start);
+        }
+        Collections.sort(durations);
+
+        boolean idempotent = FORMATTER.format(formatted).equals(formatted);
+        return new Measurement(size, lines.size(), durations.get(durations.size() / 2), idempotent);
+    }
+
+    /**
+     * Formats a pathological theory. Rejecting it is as good as formatting it, as long as it happens in time and with one of the
+     * exceptions the command line reports as a failed file.
+     *
+     * @param theory the theory
+     * @return "ok" if the theory is formatted, "rejected" if it is rejected
+     */
+    private static String outcome(String theory) {
+        try {
+            FORMATTER.format(theory);
+            return "ok";
+        } catch (IndexOutOfBoundsException | NoSuchElementException e) {
+            return "rejected";
+        }
+    }
+
+    /**
+     * Generates a theory and inserts a line directly after its header.
+     *
+     * @param lines the number of lines of the generated theory
+     * @param line  the inserted line
+     * @return the theory
+     */
+    private static String withLine(int lines, String line) {
+        List<String> theory = new ArrayList<>(TheoryGenerator.generate("Pathological", lines, 1));
+        theory.add(4, line);
+        return String.join("\n", theory);
+    }
+}
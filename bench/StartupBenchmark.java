@@ -0,0 +1,155 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.spi.ToolProvider;
+
+/**
+ * Measures the startup of the command line formatting a single theory, as in a pre-commit hook, by starting a fresh JVM per run. For
+ * every run, the time until the first output of the formatter and the time until the process exits are recorded.
+ * <p>
+ * The runs are repeated without class-data sharing, with the default archive of the JDK, and with an application archive created
+ * beforehand by a training run over a generated corpus, the way {@code bin/isabelle-format} creates it. The JVMs are started with the
+ * Java executable of the benchmark, and its class path is packaged into a jar first, since class-data sharing only accepts jars.
+ * <p>
+ * Usage: {@code java StartupBenchmark [--lines 200] [--seed 42] [--runs 10]}
+ */
+final class StartupBenchmark {
+
+    /**
+     * The median times of one configuration.
+     *
+     * @param firstOutputNanos the median time from starting the process to its first byte of output
+     * @param exitNanos        the median time from starting the process to its exit
+     */
+    private record Startup(long firstOutputNanos, long exitNanos) {
+    }
+
+    private StartupBenchmark() {
+    }
+
+    /**
+     * Runs all configurations and prints one line per configuration.
+     *
+     * @param args the optional number of lines of the formatted theory, seed and number of runs per configuration
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int lines = 200;
+        long seed = 42;
+        int runs = 10;
+        for (int i = 0; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "--lines" -> lines = Integer.parseInt(args[i + 1]);
+                case "--seed" -> seed = Long.parseLong(args[i + 1]);
+                case "--runs" -> runs = Integer.parseInt(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        Path directory = Files.createTempDirectory("startup-benchmark");
+        Path jar = packageClassPath(directory);
+        Path theory = directory.resolve("Startup.thy");
+        Files.write(theory, TheoryGenerator.generate("Startup", lines, seed));
+
+        Path corpus = Files.createDirectories(directory.resolve("training"));
+        for (int i = 0; i < 3; i++) {
+            Files.write(corpus.resolve("Training" + i + ".thy"), TheoryGenerator.generate("Training" + i, lines, seed + i + 1));
+        }
+        Path archive = directory.resolve("formatter.jsa");
+        run(List.of("-XX:ArchiveClassesAtExit=" + archive), jar, corpus);
+        if (!Files.exists(archive)) {
+            throw new IllegalStateException("The training run did not create " + archive);
+        }
+
+        System.out.printf(Locale.ROOT, "%-40s %10s %18s %12s%n", "configuration", "lines", "first output ms", "exit ms");
+        print("no class-data sharing", lines, measure(List.of("-Xshare:off"), jar, theory, runs));
+        print("JDK archive", lines, measure(List.of(), jar, theory, runs));
+        print("application archive", lines, measure(List.of("-XX:SharedArchiveFile=" + archive), jar, theory,
+                runs));
+    }
+
+    /**
+     * Packages the class path of the benchmark into a jar, or returns it unchanged if it already is a single jar.
+     *
+     * @param directory the directory to create the jar in
+     * @return the jar
+     * @throws IllegalStateException if the class path cannot be packaged
+     */
+    private static Path packageClassPath(Path directory) {
+        Path classPath = Path.of(System.getProperty("java.class.path"));
+        if (!Files.isDirectory(classPath)) {
+            return classPath;
+        }
+        Path jar = directory.resolve("formatter.jar");
+        ToolProvider tool = ToolProvider.findFirst("jar").orElseThrow(() -> new IllegalStateException("The jar tool is not available"));
+        if (tool.run(System.out, System.err, "--create", "--file", jar.toString(), "-C", classPath.toString(), ".") != 0) {
+            throw new IllegalStateException("Cannot package " + classPath + " into " + jar);
+        }
+        return jar;
+    }
+
+    /**
+     * Starts the formatter on the theory repeatedly and returns the median times.
+     *
+     * @param jvmOptions the options passed to the JVM
+     * @param jar        the jar containing the formatter
+     * @param theory     the theory to format
+     * @param runs       the number of runs
+     * @return the median times to the first output and to the exit
+     */
+    private static Startup measure(List<String> jvmOptions, Path jar, Path theory, int runs) throws IOException, InterruptedException {
+        run(jvmOptions, jar, theory);
+
+        List<Long> firstOutputs = new ArrayList<>();
+        List<Long> exits = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            long[] times = run(jvmOptions, jar, theory);
+            firstOutputs.add(times[0]);
+            exits.add(times[1]);
+        }
+        Collections.sort(firstOutputs);
+        Collections.sort(exits);
+        return new Startup(firstOutputs.get(runs / 2), exits.get(runs / 2));
+    }
+
+    /**
+     * Starts the formatter once and waits for it to exit.
+     *
+     * @param jvmOptions the options passed to the JVM
+     * @param jar        the jar containing the formatter
+     * @param path       the theory or directory to format
+     * @return the times from starting the process to its first byte of output and to its exit
+     * @throws IllegalStateException if the formatter fails
+     */
+    private static long[] run(List<String> jvmOptions, Path jar, Path path) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(jvmOptions);
+        command.addAll(List.of("-cp", jar.toString(), "Main", path.toString()));
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long firstOutput;
+        try (InputStream output = process.getInputStream()) {
+            output.read();
+            firstOutput = System.nanoTime() - start;
+            output.transferTo(OutputStream.nullOutputStream());
+        }
+        int status = process.waitFor();
+        long exit = System.nanoTime() - start;
+        if (status != 0) {
+            throw new IllegalStateException("The formatter exited with status " + status + ": " + command);
+        }
+        return new long[]{firstOutput, exit};
+    }
+
+    private static void print(String configuration, int lines, Startup startup) {
+        System.out.printf(Locale.ROOT, "%-40s %10d %18.1f %12.1f%n", configuration, lines, startup.firstOutputNanos() / 1e6,
+                startup.exitNanos() / 1e6);
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic Isabelle theories that look like real sessions: lemmas with {@code assumes}/{@code shows}, Isar proofs, apply
+ * scripts, long {@code using} chains, nested {@code if then else} and {@code case of} terms, multi-line quoted terms and cartouche
+ * comments. Spacing is randomly disturbed, so the formatter has something to do. The same seed always produces the same theory.
+ */
+final class TheoryGenerator {
+
+    private static final String[] FACTS = {"assms", "mult_le_mono", "add_mono", "le_trans", "order.trans", "length_append", "rev_rev_ident",
+            "set_append", "distinct_append", "foldr_append", "map_append", "nth_append", "take_all", "drop_all", "filter_append"};
+    private static final String[] METHODS = {"simp", "auto", "blast", "force", "fastforce", "linarith", "presburger", "arith"};
+
+    private TheoryGenerator() {
+    }
+
+    /**
+     * Writes a generated theory to a file.
+     *
+     * @param args the number of lines, the seed and the output file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: java TheoryGenerator <lines> <seed> <output.thy>");
+            System.exit(2);
+        }
+        Path output = Path.of(args[2]);
+        String name = output.getFileName().toString().replace(".thy", "");
+        Files.write(output, generate(name, Integer.parseInt(args[0]), Long.parseLong(args[1])));
+    }
+
+    /**
+     * Generates a theory with roughly the given number of lines.
+     *
+     * @param name          the name of the theory
+     * @param numberOfLines the number of lines to generate, the result may be a few lines longer to finish the last block
+     * @param seed          the seed of the random generator
+     * @return the lines of the theory
+     */
+    static List<String> generate(String name, int numberOfLines, long seed) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(numberOfLines + 32);
+        lines.add("theory " + name);
+        lines.add("  imports Main");
+        lines.add("begin");
+        lines.add("");
+
+        int block = 0;
+        while (lines.size() < numberOfLines - 1) {
+            switch (random.nextInt(8)) {
+                case 0 -> addIsarLemma(lines, random, block);
+                case 1 -> addApplyScript(lines, random, block);
+                case 2 -> addUsingChain(lines, random, block);
+                case 3 -> addNestedDefinition(lines, random, block);
+                case 4 -> addCartoucheText(lines, random, block);
+                case 5 -> addMultiLineTerm(lines, random, block);
+                case 6 -> addFunction(lines, random, block);
+                default -> addOneLineLemma(lines, random, block);
+            }
+            lines.add("");
+            if (random.nextInt(4) == 0) {
+                lines.add("");
+            }
+            block++;
+        }
+
+        lines.add("end");
+        return lines;
+    }
+
+    private static void addIsarLemma(List<String> lines, Random random, int block) {
+        int a = random.nextInt(50);
+        int b = a + 1 + random.nextInt(50);
+        if (random.nextBoolean()) {
+            lines.add(disturb(random, "lemma isar_" + block + ": assumes \"x > " + a + "\" \"x < " + b + "\" shows \"x * x > " + a + " * " + a + "\""));
+        } else {
+            lines.add("lemma isar_" + block + ":");
+            lines.add(disturb(random, "  fixes x :: nat"));
+            lines.add(disturb(random, "  assumes \"x > " + a + "\" and \"x < " + b + "\""));
+            lines.add(disturb(random, "  shows \"x * x > " + a + " * " + a + "\""));
+        }
+        lines.add("proof -");
+        lines.add(disturb(random, "  have \"x * x > " + a + " * x\" using assms by (simp add: mult_strict_mono)"));
+        if (random.nextBoolean()) {
+            lines.add(disturb(random, "  moreover have \"" + a + " * x \\<ge> " + a + " * " + a + "\" using assms by simp"));
+            lines.add(disturb(random, "  ultimately show ?thesis by " + method(random)));
+        } else {
+            lines.add(disturb(random, "  then show ?thesis using assms by " + method(random)));
+        }
+        lines.add("qed");
+    }
+
+    private static void addApplyScript(List<String> lines, Random random, int block) {
+        lines.add(disturb(random, "lemma apply_" + block + ": \"rev (rev xs" + block + ") = xs" + block + "\""));
+        lines.add("  apply(induction xs" + block + ")");
+        int steps = 1 + random.nextInt(4);
+        for (int i = 0; i < steps; i++) {
+            lines.add(random.nextBoolean() ? "   apply(" + method(random) + ")" : "  apply (" + method(random) + " simp add: " + fact(random) + ")");
+        }
+        lines.add("  done");
+    }
+
+    private static void addUsingChain(List<String> lines, Random random, int block) {
+        lines.add(disturb(random, "lemma chain_" + block + ": \"length (xs @ ys) = length xs + length ys\""));
+        StringBuilder chain = new StringBuilder("  using");
+        int facts = 5 + random.nextInt(25);
+        for (int i = 0; i < facts; i++) {
+            chain.append(' ').append(fact(random));
+            if (random.nextInt(6) == 0) {
+                chain.append("[of xs ys]");
+            }
+        }
+        lines.add(chain + " by " + method(random));
+    }
+
+    private static void addNestedDefinition(List<String> lines, Random random, int block) {
+        lines.add(disturb(random, "definition nested_" + block + " :: \"nat \\<Rightarrow> nat\" where"));
+        lines.add(disturb(random, "\"nested_" + block + " x = " + nestedTerm(random, 1 + random.nextInt(3)) + "\""));
+    }
+
+    private static String nestedTerm(Random random, int depth) {
+        if (depth == 0) {
+            return "x + " + random.nextInt(10);
+        } else if (random.nextBoolean()) {
+            return "(if x = " + random.nextInt(10) + " then " + random.nextInt(10) + " else " + nestedTerm(random, depth - 1) + ")";
+        } else {
+            return "(case x of 0 \\<Rightarrow> " + random.nextInt(10) + " | Suc n \\<Rightarrow> " + nestedTerm(random, depth - 1) + ")";
+        }
+    }
+
+    private static void addCartoucheText(List<String> lines, Random random, int block) {
+        if (random.nextInt(3) == 0) {
+            lines.add("section \\<open>Part " + block + "\\<close>");
+            lines.add("");
+        }
+        lines.add("text\\<open>Block " + block + " explains \\<open>nested_" + block + "\\<close> in some detail");
+        int more = random.nextInt(3);
+        for (int i = 0; i < more; i++) {
+            lines.add("  and continues on line " + (i + 2) + " of the comment");
+        }
+        lines.add("which ends here.\\<close>");
+    }
+
+    private static void addMultiLineTerm(List<String> lines, Random random, int block) {
+        lines.add("lemma multi_" + block + ":");
+        lines.add(disturb(random, "  \"(f" + block + " x y"));
+        lines.add(disturb(random, "    (g" + block + " z)) = h x\""));
+        lines.add("  sorry");
+    }
+
+    private static void addFunction(List<String> lines, Random random, int block) {
+        lines.add(disturb(random, "fun count_" + block + " :: \"'a list \\<Rightarrow> nat\" where"));
+        lines.add(disturb(random, "\"count_" + block + " [] = 0\" |"));
+        lines.add(disturb(random, "\"count_" + block + " (x # xs) = Suc (count_" + block + " xs)\""));
+    }
+
+    private static void addOneLineLemma(List<String> lines, Random random, int block) {
+        lines.add(disturb(random, "lemma simple_" + block + " [simp]: \"\\<lbrakk>A; B\\<rbrakk> \\<Longrightarrow> A \\<and> B\""));
+        lines.add("  by " + method(random));
+    }
+
+    /**
+     * Randomly removes or doubles spaces around operators and quotes, so the formatter has to normalize the line.
+     *
+     * @param random the random generator
+     * @param line   the well-formatted line
+     * @return the disturbed line
+     */
+    private static String disturb(Random random, String line) {
+        return switch (random.nextInt(4)) {
+            case 0 -> line.replace(" = ", "=").replace(" * ", "*");
+            case 1 -> line.replace(" \"", "\"").replace(" :: ", "::");
+            case 2 -> line.replace(" ", "  ");
+            default -> line;
+        };
+    }
+
+    private static String method(Random random) {
+        return METHODS[random.nextInt(METHODS.length)];
+    }
+
+    private static String fact(Random random) {
+        return FACTS[random.nextInt(FACTS.length)];
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes files so that readers only ever see either the old or the complete new content.
+ */
+final class AtomicFiles {
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Opens a stream that replaces the target once it is committed, unless the target already has exactly the written content. Otherwise,
+     * the content is written to a temporary file in the same directory, which is then renamed to the target. Skipping identical content
+     * keeps the modification time, so build tools do not consider the file changed. The content is compared with the existing target
+     * while it is written, so it never has to be held in memory as a whole.
+     *
+     * @param target the file to replace
+     * @return the opened stream
+     * @throws IOException if the existing target cannot be opened, or the temporary file for a missing target cannot be created
+     */
+    static ReplacingOutputStream replace(Path target) throws IOException {
+        return new ReplacingOutputStream(target);
+    }
+
+    /**
+     * Moves a file into place, atomically if the file system supports it.
+     *
+     * @param source the file to move
+     * @param target the destination
+     * @throws IOException if the file cannot be moved
+     */
+    static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Creates an empty hidden file next to the target. Unlike {@link Files#createTempFile}, the file gets the default permissions, so the
+     * renamed file looks like any other file created by the formatter.
+     *
+     * @param target the file the temporary file will replace
+     * @return the path to the created temporary file
+     * @throws IOException if the file cannot be created
+     */
+    static Path createTemporarySibling(Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        while (true) {
+            String name = "." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp";
+            try {
+                return Files.createFile(directory.resolve(name));
+            } catch (FileAlreadyExistsException e) {
+                // Try again with another random name
+            }
+        }
+    }
+
+    /**
+     * A stream replacing its target once it is committed. The content is compared with the existing target while it is written, and the
+     * temporary file next to the target is only created at the first difference, starting with the equal part read back from the target.
+     * An unchanged target therefore costs a single read and no other file system operation. Committing the stream replaces the target
+     * with the temporary file if the content differs. Closing the stream without committing discards the temporary file and leaves the
+     * target untouched.
+     */
+    static final class ReplacingOutputStream extends OutputStream {
+
+        private final Path target;
+        private Path temporaryFile;
+        private OutputStream output;
+        private InputStream existingContent;
+        private byte[] existingBytes = new byte[0];
+        private long equalBytes;
+        private boolean closed;
+
+        private ReplacingOutputStream(Path target) throws IOException {
+            this.target = target;
+            try {
+                existingContent = new BufferedInputStream(Files.newInputStream(target));
+            } catch (NoSuchFileException e) {
+                startWriting();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (existingContent != null) {
+                if (existingContent.read() == (b & 0xFF)) {
+                    equalBytes++;
+                    return;
+                }
+                startWriting();
+            }
+            output.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (existingContent != null) {
+                if (existingBytes.length < length) {
+                    existingBytes = new byte[length];
+                }
+                int read = existingContent.readNBytes(existingBytes, 0, length);
+                if (Arrays.equals(existingBytes, 0, read, bytes, offset, offset + length)) {
+                    equalBytes += length;
+                    return;
+                }
+                startWriting();
+            }
+            output.write(bytes, offset, length);
+        }
+
+        /**
+         * Finishes writing and replaces the target if its content changed.
+         *
+         * @return true if the target was replaced, false if it already had the written content
+         * @throws IOException if the target cannot be replaced
+         */
+        boolean commit() throws IOException {
+            if (existingContent != null && existingContent.read() != -1) {
+                startWriting();
+            }
+            boolean changed = output != null;
+            if (changed) {
+                output.close();
+                moveIntoPlace(temporaryFile, target);
+            }
+            close();
+            return changed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (output != null) {
+                    output.close();
+                }
+                if (existingContent != null) {
+                    existingContent.close();
+                }
+            } finally {
+                if (temporaryFile != null) {
+                    Files.deleteIfExists(temporaryFile);
+                }
+            }
+        }
+
+        /**
+         * Stops comparing at the first difference and creates the temporary file, starting with the part of the target that was equal
+         * to the content written so far.
+         *
+         * @throws IOException if the temporary file cannot be created or the target cannot be read
+         */
+        private void startWriting() throws IOException {
+            if (existingContent != null) {
+                existingContent.close();
+                existingContent = null;
+            }
+            temporaryFile = createTemporarySibling(target);
+            output = new BufferedOutputStream(Files.newOutputStream(temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+            if (equalBytes == 0) {
+                return;
+            }
+            try (InputStream equalPart = Files.newInputStream(target)) {
+                byte[] buffer = new byte[8192];
+                for (long remaining = equalBytes; remaining > 0; ) {
+                    int read = equalPart.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException(target + " changed while it was compared");
+                    }
+                    output.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs a task for many files on a bounded work-stealing pool. The largest files are scheduled first, so a single big theory does not
+ * end up as the last task while all other workers are idle. Failures are collected per file instead of aborting the whole run.
+ */
+final class BatchRunner {
+
+    /**
+     * The work done for a single file.
+     */
+    @FunctionalInterface
+    interface FileTask {
+
+        /**
+         * Processes a single file.
+         *
+         * @param path the path to the file
+         * @throws IOException if the file could not be read or written
+         */
+        void process(Path path) throws IOException;
+    }
+
+    /**
+     * A file for which the task failed.
+     *
+     * @param path      the path to the file
+     * @param exception the exception thrown by the task
+     */
+    record Failure(Path path, Exception exception) {
+    }
+
+    private final int workers;
+
+    /**
+     * Creates a batch runner.
+     *
+     * @param workers the maximum number of files processed at the same time
+     */
+    BatchRunner(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("The number of workers must be positive: " + workers);
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Runs the task for all files and waits until every file is done.
+     *
+     * @param files the files to process
+     * @param task  the task to run for every file
+     * @return the failed files ordered by path, empty if all files were processed successfully
+     */
+    List<Failure> run(List<Path> files, FileTask task) {
+        Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Path path : largestFirst(files)) {
+                tasks.add(pool.submit(() -> {
+                    try {
+                        task.process(path);
+                    } catch (Exception e) {
+                        failures.add(new Failure(path, e));
+                    }
+                }));
+            }
+            tasks.forEach(ForkJoinTask::join);
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Failure> sortedFailures = new ArrayList<>(failures);
+        sortedFailures.sort(Comparator.comparing(Failure::path));
+        return sortedFailures;
+    }
+
+    /**
+     * Orders the files by size, largest first. Files whose size cannot be determined are treated as empty.
+     *
+     * @param files the files to order
+     * @return the files ordered by descending size
+     */
+    private static List<Path> largestFirst(List<Path> files) {
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path path : files) {
+            try {
+                sizes.put(path, Files.size(path));
+            } catch (IOException e) {
+                sizes.put(path, 0L);
+            }
+        }
+
+        List<Path> ordered = new ArrayList<>(files);
+        ordered.sort(Comparator.comparing(sizes::get, Comparator.reverseOrder()));
+        return ordered;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * The rules that only rewrite the characters of a line, applied by a {@link RulePipeline} in a single scan. Their match conditions are
+ * also used by the {@link TheoryLinter}, so it reports exactly the places the rules change.
+ */
+final class CharacterRules {
+
+    static final String[] SOLVER_HELPERS = {"sledgehammer", "nitpick", "quickcheck", "try0", "try"};
+    static final String APPLY_AUTO_MARKER = " text \\<open> TODO: Fix! \\<close>";
+
+    /**
+     * Marks lines using {@code apply auto} or {@code apply (auto} without a {@code TODO} by appending {@link #APPLY_AUTO_MARKER}.
+     */
+    static final RulePipeline.CharacterRule ADD_APPLY_AUTO_BONK = line -> new RulePipeline.CharacterScan() {
+
+        private boolean usesApplyAuto;
+        private boolean containsTodo;
+
+        @Override
+        public int visit(int index) {
+            char character = line.charAt(index);
+            if (character == 'a' && !usesApplyAuto && line.startsWith("apply ", index)) {
+                usesApplyAuto = isApplyAuto(line, index);
+            } else if (character == 'T' && line.startsWith("TODO", index)) {
+                containsTodo = true;
+            }
+            return 0;
+        }
+
+        @Override
+        public int finish(RulePipeline.LineEdit edit) {
+            if (!usesApplyAuto || containsTodo) {
+                return 0;
+            }
+            edit.append(APPLY_AUTO_MARKER);
+            return 1;
+        }
+    };
+
+    /**
+     * Removes the {@link #SOLVER_HELPERS} wherever they follow the start of the line, whitespace or a closing bracket and precede
+     * {@code " (["} or the end of the line, unless an earlier rule appended text to it.
+     */
+    static final RulePipeline.CharacterRule REMOVE_SOLVER_HELPERS = line -> new RulePipeline.CharacterScan() {
+
+        private int helperAtEnd = -1;
+        private int removedHelpers;
+
+        @Override
+        public int visit(int index) {
+            int length = solverHelperAt(line, index);
+            if (length == 0) {
+                return 0;
+            } else if (index + length == line.length()) {
+                helperAtEnd = index;
+                return 0;
+            }
+            removedHelpers++;
+            return length;
+        }
+
+        @Override
+        public int finish(RulePipeline.LineEdit edit) {
+            if (helperAtEnd < 0 || edit.isAppended()) {
+                return removedHelpers;
+            }
+            edit.remove(helperAtEnd, line.length());
+            return removedHelpers + 1;
+        }
+    };
+
+    private CharacterRules() {
+    }
+
+    /**
+     * Checks whether an occurrence of {@code "apply "} continues with {@code auto} or {@code (auto}.
+     *
+     * @param line  the line
+     * @param index the index of {@code "apply "}
+     * @return true if the line uses {@code apply auto} at the index, false otherwise
+     */
+    static boolean isApplyAuto(String line, int index) {
+        return line.startsWith("auto", index + 6) || line.startsWith("(auto", index + 6);
+    }
+
+    /**
+     * Finds a solver helper that {@link #REMOVE_SOLVER_HELPERS} removes at an index, either because it precedes {@code " (["} or because
+     * it ends the line.
+     *
+     * @param line  the line
+     * @param index the index the solver helper has to start at
+     * @return the length of the solver helper, or 0 if there is none that is removed
+     */
+    static int solverHelperAt(String line, int index) {
+        if (index > 0 && !isBeforeSolverHelper(line.charAt(index - 1))) {
+            return 0;
+        }
+        for (String helper : SOLVER_HELPERS) {
+            int end = index + helper.length();
+            if (line.startsWith(helper, index)
+                    && (end == line.length() || isWhitespace(line.charAt(end)) && line.startsWith("([", end + 1))) {
+                return helper.length();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks whether a character may precede a solver helper.
+     *
+     * @param character the character before the solver helper
+     * @return true for whitespace and closing round and square brackets, false otherwise
+     */
+    private static boolean isBeforeSolverHelper(char character) {
+        return isWhitespace(character) || character == ')' || character == ']';
+    }
+
+    /**
+     * Checks whether a character is whitespace in the sense of the regular expression class {@code \s}.
+     *
+     * @param character the character
+     * @return true for spaces, tabs, line breaks, vertical tabs and form feeds, false otherwise
+     */
+    static boolean isWhitespace(char character) {
+        return character == ' ' || character == '\t' || character == '\n' || character == '\u000B' || character == '\f' || character == '\r';
+    }
+}
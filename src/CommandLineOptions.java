@@ -0,0 +1,218 @@
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The options given on the command line.
+ *
+ * @param workers     the number of files formatted in parallel
+ * @param incremental whether unchanged files recorded in the manifest are skipped
+ * @param manifest    the path to the manifest used for incremental runs
+ * @param report      the path the JSON run report is written to, or null if no report is written
+ * @param daemon      the address the {@link FormatterDaemon} listens on, or null if the files in the working directory are formatted
+ * @param idleTimeout the time without requests after which the daemon stops
+ * @param range       the changed lines of a single theory whose enclosing blocks are reformatted in place, or null to format all theories
+ * @param check       whether the theories are only checked for being formatted instead of writing their clean files
+ * @param diff        whether a unified diff is printed for every theory that is not formatted, implies {@code check}
+ * @param roots       the directories or theories to format, the working directory if none are given
+ * @param includes    globs of which a theory has to match at least one, no restriction if empty
+ * @param excludes    globs of theories and directories that are skipped
+ * @param gitignore   whether files and directories ignored by {@code .gitignore} files are skipped
+ * @param sessions    the sessions declared in {@code ROOT} files below the roots whose theories are formatted, all theories below the
+ *                    roots if empty
+ * @param watch       whether the theories are watched and reformatted whenever they change instead of being formatted once
+ * @param debounce    the time without changes to a watched theory after which it is reformatted
+ * @param lint        whether the theories are only linted for style findings instead of being formatted
+ * @param json        whether the findings of a lint run are printed as JSON instead of text
+ * @param config      the configuration of the formatter, with the rules switched off on the command line disabled and the symbol
+ *                    form chosen on the command line
+ */
+record CommandLineOptions(int workers, boolean incremental, Path manifest, Path report, SocketAddress daemon, Duration idleTimeout,
+                          LineRange range, boolean check, boolean diff, List<Path> roots, List<String> includes, List<String> excludes,
+                          boolean gitignore, Set<String> sessions, boolean watch, Duration debounce, boolean lint,
+                          boolean json, FormatterConfig config) {
+
+    /**
+     * A range of changed lines in a theory.
+     *
+     * @param file      the path to the theory
+     * @param firstLine the number of the first changed line, starting at 1
+     * @param lastLine  the number of the last changed line, inclusive
+     */
+    record LineRange(Path file, int firstLine, int lastLine) {
+    }
+
+    private static final Path DEFAULT_MANIFEST = Path.of(".formatter-manifest");
+    private static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(30);
+    private static final Duration DEFAULT_DEBOUNCE = Duration.ofMillis(150);
+
+    /**
+     * Parses the command line arguments.
+     *
+     * @param args the arguments passed to {@link Main#main(String[])}
+     * @return the parsed options
+     * @throws IllegalArgumentException if an argument is unknown or has an invalid value
+     */
+    static CommandLineOptions parse(String[] args) {
+        int workers = Runtime.getRuntime().availableProcessors();
+        boolean incremental = false;
+        Path manifest = DEFAULT_MANIFEST;
+        Path report = null;
+        SocketAddress daemon = null;
+        Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        LineRange range = null;
+        boolean check = false;
+        boolean diff = false;
+        List<Path> roots = new ArrayList<>();
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        boolean gitignore = true;
+        Set<String> sessions = new LinkedHashSet<>();
+        boolean watch = false;
+        Duration debounce = DEFAULT_DEBOUNCE;
+        boolean lint = false;
+        boolean json = false;
+        FormatterConfig config = FormatterConfig.defaults();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--workers" -> workers = parsePositive(args, ++i);
+                case "--incremental" -> incremental = true;
+                case "--manifest" -> manifest = Path.of(value(args, ++i));
+                case "--report" -> report = Path.of(value(args, ++i));
+                case "--daemon" -> daemon = UnixDomainSocketAddress.of(value(args, ++i));
+                case "--daemon-port" -> daemon = FormatterDaemon.localhost(parsePositive(args, ++i));
+                case "--idle-timeout" -> idleTimeout = Duration.ofSeconds(parsePositive(args, ++i));
+                case "--range" -> range = parseRange(args, ++i);
+                case "--check" -> check = true;
+                case "--diff" -> {
+                    check = true;
+                    diff = true;
+                }
+                case "--include" -> includes.add(value(args, ++i));
+                case "--exclude" -> excludes.add(value(args, ++i));
+                case "--no-gitignore" -> gitignore = false;
+                case "--session" -> sessions.add(value(args, ++i));
+                case "--watch" -> watch = true;
+                case "--debounce" -> debounce = Duration.ofMillis(parsePositive(args, ++i));
+                case "--lint" -> lint = true;
+                case "--json" -> json = true;
+                case "--disable" -> config = config.withRule(parseRule(args, ++i), false);
+                case "--unicode" -> config = config.withUnicodeSymbols(true);
+                default -> {
+                    if (args[i].startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown argument: " + args[i]);
+                    }
+                    roots.add(Path.of(args[i]));
+                }
+            }
+        }
+        if (roots.isEmpty()) {
+            roots.add(Path.of("."));
+        }
+
+        return new CommandLineOptions(workers, incremental, manifest, report, daemon, idleTimeout, range, check, diff, List.copyOf(roots),
+                List.copyOf(includes), List.copyOf(excludes), gitignore, Collections.unmodifiableSet(sessions), watch, debounce,
+                lint, json, config);
+    }
+
+    /**
+     * Returns the value of an option.
+     *
+     * @param args  the command line arguments
+     * @param index the index of the value
+     * @return the value
+     * @throws IllegalArgumentException if the value is missing
+     */
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    /**
+     * Parses the value of an option as a range of lines in a file, given as {@code <file>:<first>-<last>}.
+     *
+     * @param args  the command line arguments
+     * @param index the index of the value
+     * @return the parsed range
+     * @throws IllegalArgumentException if the value is missing or not a valid range
+     */
+    private static LineRange parseRange(String[] args, int index) {
+        String value = value(args, index);
+        int separator = value.lastIndexOf(':');
+        int dash = value.indexOf('-', separator + 1);
+        try {
+            if (separator > 0 && dash > separator) {
+                int firstLine = Integer.parseInt(value.substring(separator + 1, dash));
+                int lastLine = Integer.parseInt(value.substring(dash + 1));
+                if (firstLine > 0 && lastLine >= firstLine) {
+                    return new LineRange(Path.of(value.substring(0, separator)), firstLine, lastLine);
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Reported below together with malformed ranges
+        }
+        throw new IllegalArgumentException("Expected <file>:<first>-<last> for " + args[index - 1] + ": " + value);
+    }
+
+    /**
+     * Parses the value of an option as the name of a rule, written in lower case with hyphens, for example
+     * {@code remove-solver-helpers}.
+     *
+     * @param args  the command line arguments
+     * @param index the index of the value
+     * @return the parsed rule
+     * @throws IllegalArgumentException if the value is missing or not the name of a rule
+     */
+    private static FormatterConfig.Rule parseRule(String[] args, int index) {
+        String value = value(args, index);
+        for (FormatterConfig.Rule rule : FormatterConfig.Rule.values()) {
+            if (ruleName(rule).equals(value)) {
+                return rule;
+            }
+        }
+        throw new IllegalArgumentException("Unknown rule for " + args[index - 1] + ": " + value + ", known rules: "
+                + Arrays.stream(FormatterConfig.Rule.values()).map(CommandLineOptions::ruleName).toList());
+    }
+
+    /**
+     * Returns the name of a rule on the command line.
+     *
+     * @param rule the rule
+     * @return the name of the rule in lower case with hyphens
+     */
+    private static String ruleName(FormatterConfig.Rule rule) {
+        return rule.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    /**
+     * Parses the value of an option as a positive number.
+     *
+     * @param args  the command line arguments
+     * @param index the index of the value
+     * @return the parsed value
+     * @throws IllegalArgumentException if the value is missing, not a number or not positive
+     */
+    private static int parsePositive(String[] args, int index) {
+        String value = value(args, index);
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below together with non-positive values
+        }
+        throw new IllegalArgumentException("Expected a positive number for " + args[index - 1] + ": " + value);
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.io.Serial;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks whether a theory is formatted without writing anything. The formatted lines are compared with the source as soon as the
+ * formatter writes them, and formatting stops at the first difference, so a formatted theory costs one read and a theory that is not
+ * formatted only as much as its formatted prefix.
+ */
+final class FormatCheck {
+
+    /**
+     * The outcome of checking a single theory.
+     *
+     * @param path                the path to the theory
+     * @param firstDifferentLine  the number of the first line that differs from its formatted version, starting at 1, or 0 if the theory
+     *                            is formatted
+     * @param diff                the unified diff between the theory and its formatted version, or null if it was not requested or the
+     *                            theory is formatted
+     */
+    record Result(Path path, int firstDifferentLine, String diff) {
+
+        /**
+         * Checks whether the theory is formatted.
+         *
+         * @return true if formatting the theory does not change it, false otherwise
+         */
+        boolean isFormatted() {
+            return firstDifferentLine == 0;
+        }
+    }
+
+    /**
+     * Thrown by {@link ComparingWriter} to stop formatting at the first difference. It carries no stack trace, since it is always caught.
+     */
+    private static final class DifferenceFound extends RuntimeException {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        DifferenceFound() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Compares the written characters with the source instead of storing them.
+     */
+    private static final class ComparingWriter extends Writer {
+
+        private final String source;
+        private int position;
+
+        /**
+         * Creates a writer comparing against a source.
+         *
+         * @param source the content the written characters are expected to match
+         */
+        ComparingWriter(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            if (length > source.length() - position || !source.regionMatches(position, text, offset, length)) {
+                throw new DifferenceFound();
+            }
+            position += length;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            write(new String(buffer, offset, length), 0, length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Returns the number of the line containing the first character that was not confirmed by the written output.
+         *
+         * @return the line number, starting at 1
+         */
+        int currentLine() {
+            int line = 1;
+            for (int i = 0; i < position; i++) {
+                if (source.charAt(i) == '\n') {
+                    line++;
+                }
+            }
+            return line;
+        }
+    }
+
+    private FormatCheck() {
+    }
+
+    /**
+     * Checks whether a theory is formatted.
+     *
+     * @param formatter the formatter defining the expected format
+     * @param path      the path to the theory
+     * @param withDiff  whether a unified diff is produced for a theory that is not formatted, which requires formatting it completely
+     * @return the outcome of the check
+     * @throws IOException if the theory cannot be read
+     */
+    static Result check(IsabelleFormatter formatter, Path path, boolean withDiff) throws IOException {
+        String source = Files.readString(path);
+        ComparingWriter writer = new ComparingWriter(source);
+        boolean formatted;
+        try {
+            formatter.format(new StringReader(source), writer);
+            formatted = writer.position == source.length();
+        } catch (DifferenceFound e) {
+            formatted = false;
+        }
+
+        if (formatted) {
+            return new Result(path, 0, null);
+        }
+        String diff = withDiff ? UnifiedDiff.of(path.toString(), source, formatter.format(source)) : null;
+        return new Result(path, writer.currentLine(), diff);
+    }
+}
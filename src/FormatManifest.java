@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An on-disk record of the source files that were already formatted, used to skip unchanged files in incremental runs.
+ * <p>
+ * Every entry stores the SHA-256 hash of a source file as it was when it was last formatted. The manifest also stores a fingerprint of
+ * the formatter itself, so all entries are discarded as soon as the formatting rules change. Saving merges the entries with the
+ * manifest currently on disk under a file lock and replaces it atomically, so concurrent runs and interrupted runs never leave a
+ * corrupt manifest behind. The lock file lives in the temporary directory rather than next to the manifest, so it does not clutter the
+ * project.
+ */
+final class FormatManifest {
+
+    private static final String HEADER = "# Isabelle formatter manifest";
+    private static final String FINGERPRINT_PREFIX = "fingerprint ";
+    private static final String UNKNOWN_FINGERPRINT = "unknown";
+    private static final int ENTRIES_BETWEEN_SAVES = 64;
+
+    private final Path manifestPath;
+    private final String fingerprint;
+    private final Map<String, String> knownHashes;
+    private final Map<String, String> recordedHashes = new ConcurrentHashMap<>();
+    private final Set<String> removedPaths = ConcurrentHashMap.newKeySet();
+    private int changesSinceSave;
+
+    private FormatManifest(Path manifestPath, String fingerprint, Map<String, String> knownHashes) {
+        this.manifestPath = manifestPath;
+        this.fingerprint = fingerprint;
+        this.knownHashes = knownHashes;
+    }
+
+    /**
+     * Loads the manifest from disk. A missing manifest or one written by a different version of the formatter results in an empty
+     * manifest.
+     *
+     * @param manifestPath the path to the manifest file
+     * @param config       the configuration the files are formatted with, whose enabled rules and symbol form are part of the fingerprint
+     * @return the loaded manifest
+     * @throws IOException if the manifest exists but cannot be read
+     */
+    static FormatManifest load(Path manifestPath, FormatterConfig config) throws IOException {
+        String fingerprint = formatterFingerprint(config);
+        return new FormatManifest(manifestPath, fingerprint, readEntries(manifestPath, fingerprint));
+    }
+
+    /**
+     * Computes the hash of a source file as it is stored in the manifest.
+     *
+     * @param path the path to the source file
+     * @return the hexadecimal SHA-256 hash of the file content
+     * @throws IOException if the file cannot be read
+     */
+    static String hash(Path path) throws IOException {
+        return HexFormat.of().formatHex(sha256().digest(Files.readAllBytes(path)));
+    }
+
+    /**
+     * Checks whether a source file was already formatted with exactly the given content by the current formatter.
+     *
+     * @param path the path to the source file
+     * @param hash the hash of the current content of the file
+     * @return true if the file does not have to be formatted again, false otherwise
+     */
+    boolean isUpToDate(Path path, String hash) {
+        String key = key(path);
+        return !UNKNOWN_FINGERPRINT.equals(fingerprint) && !removedPaths.contains(key) && hash.equals(knownHashes.get(key));
+    }
+
+    /**
+     * Records that a source file was formatted successfully. The hash must be computed before the file is read for formatting, so a
+     * concurrent edit can only cause a redundant reformat in the next run and never a skipped one.
+     *
+     * @param path the path to the source file
+     * @param hash the hash of the content that was formatted
+     * @throws IOException if the manifest had to be saved and saving failed
+     */
+    void record(Path path, String hash) throws IOException {
+        String key = key(path);
+        removedPaths.remove(key);
+        recordedHashes.put(key, hash);
+        changed();
+    }
+
+    /**
+     * Removes a source file from the manifest, so it is formatted again in the next run.
+     *
+     * @param path the path to the source file
+     * @throws IOException if the manifest had to be saved and saving failed
+     */
+    void forget(Path path) throws IOException {
+        String key = key(path);
+        recordedHashes.remove(key);
+        removedPaths.add(key);
+        changed();
+    }
+
+    /**
+     * Saves all entries recorded so far. The manifest on disk is re-read under a file lock and merged with the recorded entries, so
+     * entries written by concurrent runs are kept.
+     *
+     * @throws IOException if the manifest cannot be written
+     */
+    synchronized void save() throws IOException {
+        try (FileChannel lockChannel = FileChannel.open(lockPath(manifestPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // The lock is released when the channel is closed
+            lockChannel.lock();
+            Map<String, String> entries = new TreeMap<>(readEntries(manifestPath, fingerprint));
+            entries.keySet().removeAll(removedPaths);
+            entries.putAll(recordedHashes);
+
+            List<String> lines = new ArrayList<>();
+            lines.add(HEADER);
+            lines.add(FINGERPRINT_PREFIX + fingerprint);
+            entries.forEach((path, hash) -> lines.add(hash + " " + path));
+
+            Path temporaryFile = AtomicFiles.createTemporarySibling(manifestPath);
+            try {
+                Files.write(temporaryFile, lines, StandardCharsets.UTF_8);
+                AtomicFiles.moveIntoPlace(temporaryFile, manifestPath);
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+            changesSinceSave = 0;
+        }
+    }
+
+    /**
+     * Counts a change and saves the manifest regularly, so an interrupted run keeps most of its progress.
+     *
+     * @throws IOException if saving failed
+     */
+    private void changed() throws IOException {
+        boolean shouldSave;
+        synchronized (this) {
+            changesSinceSave++;
+            shouldSave = changesSinceSave >= ENTRIES_BETWEEN_SAVES;
+        }
+        if (shouldSave) {
+            save();
+        }
+    }
+
+    /**
+     * Reads the entries of a manifest file, ignoring manifests written with a different fingerprint.
+     *
+     * @param manifestPath the path to the manifest file
+     * @param fingerprint  the fingerprint of the current formatter
+     * @return the entries mapping absolute source paths to hashes
+     * @throws IOException if the manifest exists but cannot be read
+     */
+    private static Map<String, String> readEntries(Path manifestPath, String fingerprint) throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return new HashMap<>();
+        }
+
+        Map<String, String> entries = new HashMap<>();
+        if (lines.size() < 2 || !lines.get(1).equals(FINGERPRINT_PREFIX + fingerprint)) {
+            return entries;
+        }
+        for (String line : lines.subList(2, lines.size())) {
+            int separator = line.indexOf(' ');
+            if (separator > 0) {
+                entries.put(line.substring(separator + 1), line.substring(0, separator));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Computes a fingerprint of the formatter by hashing its class files, the enabled rules and the symbol form, so any change to the
+     * rules invalidates the manifest. The formatter lives in the unnamed package, so only the class files directly in its class directory
+     * or at the root of its jar are hashed, by name and content. Other files next to them, such as build output or archives, and the
+     * timestamps of jar entries do not change the fingerprint.
+     *
+     * @param config the configuration the files are formatted with
+     * @return the fingerprint, or {@link FormatManifest#UNKNOWN_FINGERPRINT} if the class files cannot be located
+     */
+    private static String formatterFingerprint(FormatterConfig config) {
+        CodeSource codeSource = Main.class.getProtectionDomain().getCodeSource();
+        if (codeSource == null) {
+            return UNKNOWN_FINGERPRINT;
+        }
+
+        try {
+            Path location = Path.of(codeSource.getLocation().toURI());
+            MessageDigest digest = sha256();
+            if (Files.isDirectory(location)) {
+                List<Path> classFiles;
+                try (Stream<Path> paths = Files.list(location)) {
+                    classFiles = paths.filter(p -> p.getFileName().toString().endsWith(".class") && Files.isRegularFile(p)).sorted().toList();
+                }
+                for (Path classFile : classFiles) {
+                    digest.update(classFile.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(classFile));
+                }
+            } else {
+                try (ZipFile jar = new ZipFile(location.toFile())) {
+                    List<? extends ZipEntry> classEntries = jar.stream()
+                            .filter(entry -> entry.getName().endsWith(".class") && entry.getName().indexOf('/') < 0)
+                            .sorted(Comparator.comparing(ZipEntry::getName)).toList();
+                    for (ZipEntry entry : classEntries) {
+                        digest.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+                        try (InputStream input = jar.getInputStream(entry)) {
+                            digest.update(input.readAllBytes());
+                        }
+                    }
+                }
+            }
+            digest.update(new TreeSet<>(config.enabledRules()).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((config.unicodeSymbols() ? "unicode" : "ascii").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | URISyntaxException | SecurityException e) {
+            return UNKNOWN_FINGERPRINT;
+        }
+    }
+
+    /**
+     * Creates the key under which a source file is stored. The key is absolute, so the same file has the same key in runs started from
+     * different working directories.
+     *
+     * @param path the path to the source file
+     * @return the absolute, normalized path as string
+     */
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Determines the file locked while a manifest is saved. The lock file is named after the absolute path of the manifest, so all runs
+     * using the same manifest lock the same file. It is never deleted, since a run waiting for the lock would otherwise lock a file
+     * that a later run no longer sees.
+     *
+     * @param manifestPath the path to the manifest file
+     * @return the path to the lock file in the temporary directory
+     */
+    private static Path lockPath(Path manifestPath) {
+        byte[] manifest = manifestPath.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+        String name = "isabelle-formatter-" + HexFormat.of().formatHex(sha256().digest(manifest), 0, 16) + ".lock";
+        return Path.of(System.getProperty("java.io.tmpdir"), name);
+    }
+
+    /**
+     * Creates a SHA-256 digest.
+     *
+     * @return a new digest
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Timing and counters collected while formatting a single file. Every pass over a line is timed and counted, and the rule specific
+ * counters are derived from the lines a pass rewrote. Finishing the statistics emits them as {@link FormatterEvents}, so the cost of
+ * the formatter can be watched in production with Flight Recorder, and they can be written to a run report by {@link RunReport}.
+ * <p>
+ * An instance belongs to the thread formatting the file and is not thread-safe.
+ */
+final class FormatStatistics {
+
+    /**
+     * The passes that are timed separately.
+     */
+    enum Pass {
+        NORMALIZE_SPACES("normalizeSpaces", FormatterConfig.Rule.NORMALIZE_SPACES),
+        MOVE_LINE_BREAKERS("moveLineBreakers", FormatterConfig.Rule.MOVE_LINE_BREAKERS),
+        BREAK_LINE("breakLine", FormatterConfig.Rule.BREAK_LINE),
+        REMOVE_MULTIPLE_PROOF_HELPERS("removeMultipleProofHelpers", FormatterConfig.Rule.REMOVE_MULTIPLE_PROOF_HELPERS),
+        REMOVE_UNNECESSARY_BRACKETS("removeUnnecessaryBrackets", FormatterConfig.Rule.REMOVE_UNNECESSARY_BRACKETS),
+        ADD_ANDS("addAnds", FormatterConfig.Rule.ADD_ANDS),
+        BREAK_LONG_LINES("breakLongLines", FormatterConfig.Rule.BREAK_LONG_LINES),
+        ADD_APPLY_AUTO_BONK("addApplyAutoBonk", FormatterConfig.Rule.ADD_APPLY_AUTO_BONK),
+        REMOVE_SOLVER_HELPERS("removeSolverHelpers", FormatterConfig.Rule.REMOVE_SOLVER_HELPERS),
+        HANDLE_COMMENT("handleComment", null),
+        INDENT_LINES("indentLines", null);
+
+        private final String displayName;
+        private final FormatterConfig.Rule rule;
+
+        Pass(String displayName, FormatterConfig.Rule rule) {
+            this.displayName = displayName;
+            this.rule = rule;
+        }
+
+        /**
+         * Returns the name of the pass as it appears in events and reports.
+         *
+         * @return the name of the method implementing the pass
+         */
+        String displayName() {
+            return displayName;
+        }
+
+        /**
+         * Returns the configurable rule implemented by the pass.
+         *
+         * @return the rule, or null if the pass is always run
+         */
+        FormatterConfig.Rule rule() {
+            return rule;
+        }
+    }
+
+    private final String path;
+    private final FormatterEvents.FileFormatted fileEvent = new FormatterEvents.FileFormatted();
+    private final long startNanos = System.nanoTime();
+    private final long[] passNanos = new long[Pass.values().length];
+    private final long[] passInvocations = new long[Pass.values().length];
+    private final long[] passRewrites = new long[Pass.values().length];
+    private long wallTimeNanos;
+    private long linesIn;
+    private long linesOut;
+    private long splits;
+    private long bracketsRemoved;
+    private long solverHelpersStripped;
+    private long applyAutoMarkers;
+
+    /**
+     * Starts collecting the statistics of a file.
+     *
+     * @param path the path of the file, used to identify it in events and reports
+     */
+    FormatStatistics(String path) {
+        this.path = path;
+        fileEvent.begin();
+    }
+
+    /**
+     * Applies a pass to a line, timing it and counting whether it rewrote the line.
+     *
+     * @param pass the pass that is applied
+     * @param line the line before the pass
+     * @param rule the implementation of the pass
+     * @return the line after the pass
+     */
+    String apply(Pass pass, String line, UnaryOperator<String> rule) {
+        long start = System.nanoTime();
+        String result = rule.apply(line);
+        passNanos[pass.ordinal()] += System.nanoTime() - start;
+        passInvocations[pass.ordinal()]++;
+        if (!result.equals(line)) {
+            passRewrites[pass.ordinal()]++;
+            countRewrite(pass, line, result);
+        }
+        return result;
+    }
+
+    /**
+     * Applies several passes fused into a single scan to a line. The scan is timed as a whole and its time is attributed to the first
+     * of the passes, while every pass is counted as invoked. The scan reports the rewrites of the passes itself.
+     *
+     * @param passes the fused passes, in the order they are applied
+     * @param line   the line before the scan
+     * @param scan   the implementation of the fused passes, reporting rewrites with {@link #countFusedRewrite(Pass, long)}
+     * @return the line after the scan
+     */
+    String applyFused(List<Pass> passes, String line, UnaryOperator<String> scan) {
+        long start = System.nanoTime();
+        String result = scan.apply(line);
+        passNanos[passes.getFirst().ordinal()] += System.nanoTime() - start;
+        for (Pass pass : passes) {
+            passInvocations[pass.ordinal()]++;
+        }
+        return result;
+    }
+
+    /**
+     * Counts a line rewritten by a pass of a fused scan.
+     *
+     * @param pass        the pass that rewrote the line
+     * @param occurrences the number of places the pass rewrote
+     */
+    void countFusedRewrite(Pass pass, long occurrences) {
+        passRewrites[pass.ordinal()]++;
+        switch (pass) {
+            case ADD_APPLY_AUTO_BONK -> applyAutoMarkers += occurrences;
+            case REMOVE_SOLVER_HELPERS -> solverHelpersStripped += occurrences;
+            default -> {
+                // No rule specific counter
+            }
+        }
+    }
+
+    /**
+     * Runs a pass that does not map a single line to another, timing it.
+     *
+     * @param pass the pass that is run
+     * @param step the implementation of the pass
+     */
+    void measure(Pass pass, Runnable step) {
+        long start = System.nanoTime();
+        step.run();
+        passNanos[pass.ordinal()] += System.nanoTime() - start;
+        passInvocations[pass.ordinal()]++;
+    }
+
+    /**
+     * Counts a line written to the clean file.
+     */
+    void lineWritten() {
+        linesOut++;
+    }
+
+    /**
+     * Records how the pending lines of the file were consumed.
+     *
+     * @param lines the pending lines after the file was formatted completely
+     */
+    void recordInput(PendingLines lines) {
+        linesIn = lines.linesRead();
+        splits = lines.linesInserted();
+    }
+
+    /**
+     * Returns the number of lines marked by {@link Pass#ADD_APPLY_AUTO_BONK}.
+     *
+     * @return the number of appended markers
+     */
+    long applyAutoMarkers() {
+        return applyAutoMarkers;
+    }
+
+    /**
+     * Returns the number of solver helpers removed by {@link Pass#REMOVE_SOLVER_HELPERS}.
+     *
+     * @return the number of removed solver helpers
+     */
+    long solverHelpersStripped() {
+        return solverHelpersStripped;
+    }
+
+    /**
+     * Stops the wall clock of the file and emits the collected statistics as Flight Recorder events.
+     *
+     * @return these statistics
+     */
+    FormatStatistics finish() {
+        wallTimeNanos = System.nanoTime() - startNanos;
+        fileEvent.end();
+        if (fileEvent.shouldCommit()) {
+            fileEvent.path = path;
+            fileEvent.linesIn = linesIn;
+            fileEvent.linesOut = linesOut;
+            fileEvent.splits = splits;
+            fileEvent.bracketsRemoved = bracketsRemoved;
+            fileEvent.solverHelpersStripped = solverHelpersStripped;
+            fileEvent.applyAutoMarkers = applyAutoMarkers;
+            fileEvent.commit();
+        }
+
+        for (Pass pass : Pass.values()) {
+            FormatterEvents.PassCompleted passEvent = new FormatterEvents.PassCompleted();
+            if (passEvent.shouldCommit()) {
+                passEvent.path = path;
+                passEvent.pass = pass.displayName();
+                passEvent.totalTime = passNanos[pass.ordinal()];
+                passEvent.invocations = passInvocations[pass.ordinal()];
+                passEvent.rewrites = passRewrites[pass.ordinal()];
+                passEvent.commit();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds the counters of another file to these statistics, used to compute the totals of a run.
+     *
+     * @param other the statistics to add
+     */
+    void add(FormatStatistics other) {
+        for (int i = 0; i < passNanos.length; i++) {
+            passNanos[i] += other.passNanos[i];
+            passInvocations[i] += other.passInvocations[i];
+            passRewrites[i] += other.passRewrites[i];
+        }
+        wallTimeNanos += other.wallTimeNanos;
+        linesIn += other.linesIn;
+        linesOut += other.linesOut;
+        splits += other.splits;
+        bracketsRemoved += other.bracketsRemoved;
+        solverHelpersStripped += other.solverHelpersStripped;
+        applyAutoMarkers += other.applyAutoMarkers;
+    }
+
+    /**
+     * Updates the rule specific counters for a line rewritten by a pass.
+     *
+     * @param pass   the pass that rewrote the line
+     * @param before the line before the pass
+     * @param after  the line after the pass
+     */
+    private void countRewrite(Pass pass, String before, String after) {
+        switch (pass) {
+            case REMOVE_UNNECESSARY_BRACKETS -> bracketsRemoved += countOpeningBrackets(before) - countOpeningBrackets(after);
+            default -> {
+                // No rule specific counter
+            }
+        }
+    }
+
+    /**
+     * Counts the round opening brackets in a line. Every removed pair of brackets removes exactly one of them from the current line,
+     * even if the closing bracket is on a later line.
+     *
+     * @param line the line to search in
+     * @return the number of opening brackets
+     */
+    private static long countOpeningBrackets(String line) {
+        return line.chars().filter(ch -> ch == '(').count();
+    }
+
+    /**
+     * Returns the path of the file these statistics belong to.
+     *
+     * @return the path as given when the statistics were started
+     */
+    String path() {
+        return path;
+    }
+
+    /**
+     * Appends these statistics as a JSON object to a report.
+     *
+     * @param json   the report to append to
+     * @param indent the indentation of the line containing the object
+     */
+    void appendJson(StringBuilder json, String indent) {
+        String fieldIndent = indent + "  ";
+        json.append("{\n");
+        json.append(fieldIndent).append("\"path\": ").append(RunReport.quote(path)).append(",\n");
+        json.append(fieldIndent).append("\"wallTimeNanos\": ").append(wallTimeNanos).append(",\n");
+        json.append(fieldIndent).append("\"linesIn\": ").append(linesIn).append(",\n");
+        json.append(fieldIndent).append("\"linesOut\": ").append(linesOut).append(",\n");
+        json.append(fieldIndent).append("\"splits\": ").append(splits).append(",\n");
+        json.append(fieldIndent).append("\"bracketsRemoved\": ").append(bracketsRemoved).append(",\n");
+        json.append(fieldIndent).append("\"solverHelpersStripped\": ").append(solverHelpersStripped).append(",\n");
+        json.append(fieldIndent).append("\"applyAutoMarkers\": ").append(applyAutoMarkers).append(",\n");
+        json.append(fieldIndent).append("\"passes\": {\n");
+        for (Pass pass : Pass.values()) {
+            json.append(fieldIndent).append("  ").append(RunReport.quote(pass.displayName()))
+                    .append(": {\"nanos\": ").append(passNanos[pass.ordinal()])
+                    .append(", \"invocations\": ").append(passInvocations[pass.ordinal()])
+                    .append(", \"rewrites\": ").append(passRewrites[pass.ordinal()])
+                    .append(pass.ordinal() < passNanos.length - 1 ? "},\n" : "}\n");
+        }
+        json.append(fieldIndent).append("}\n");
+        json.append(indent).append("}");
+    }
+}
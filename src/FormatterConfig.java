@@ -0,0 +1,212 @@
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The configuration of an {@link IsabelleFormatter}. Configurations are immutable, so a single configuration can be shared by any number
+ * of formatters and threads. Start from {@link #defaults()} and derive changed configurations with the {@code with} methods.
+ *
+ * @param indentionSize             the number of spaces per indentation level
+ * @param maxLineLength             the length above which lines starting with a proof helper are broken up
+ * @param maxNewLines               the maximum number of consecutive empty lines that are kept
+ * @param linesBeforeLemmaOrSection the number of empty lines placed before lemmas and sections
+ * @param lineSeparator             the separator written after every line
+ * @param enabledRules              the rules that are applied, all other rules are skipped
+ * @param keywords                  keywords classified in addition to or instead of the built-in ones, mapping a keyword to
+ *                                  {@link KeywordCategory#NONE} removes a built-in keyword
+ * @param unicodeSymbols            whether Isabelle symbols are written as Unicode characters, for example {@code ⇒} instead of
+ *                                  {@code \<Rightarrow>}. Unicode symbols in the input are then read as well.
+ */
+public record FormatterConfig(int indentionSize, int maxLineLength, int maxNewLines, int linesBeforeLemmaOrSection, String lineSeparator,
+                              Set<Rule> enabledRules, Map<String, KeywordCategory> keywords, boolean unicodeSymbols) {
+
+    /**
+     * The rules applied to every line that can be switched off individually.
+     */
+    public enum Rule {
+        NORMALIZE_SPACES,
+        MOVE_LINE_BREAKERS,
+        BREAK_LINE,
+        REMOVE_MULTIPLE_PROOF_HELPERS,
+        REMOVE_UNNECESSARY_BRACKETS,
+        ADD_ANDS,
+        BREAK_LONG_LINES,
+        ADD_APPLY_AUTO_BONK,
+        REMOVE_SOLVER_HELPERS
+    }
+
+    /**
+     * The role of the keyword a line starts with, which decides how the line is indented and whether empty lines are placed before it.
+     */
+    public enum KeywordCategory {
+        /**
+         * Starts a lemma, for example {@code lemma} or {@code theorem}.
+         */
+        LEMMA_STARTER,
+        /**
+         * Starts a section heading, for example {@code section}.
+         */
+        TEXT_STARTER,
+        /**
+         * Starts a comment, {@code text}.
+         */
+        COMMENT_STARTER,
+        /**
+         * Starts any other top-level command, for example {@code definition} or {@code end}.
+         */
+        OTHER_STARTER,
+        /**
+         * Starts a step of a structured proof, for example {@code have} or {@code then}.
+         */
+        STEP_STARTER,
+        /**
+         * Adds facts to a proof method, for example {@code using}.
+         */
+        PROOF_HELPER,
+        /**
+         * Not a keyword with a special role.
+         */
+        NONE
+    }
+
+    private static final FormatterConfig DEFAULTS = new FormatterConfig(2, 100, 2, 2, System.lineSeparator(), EnumSet.allOf(Rule.class), Map.of(),
+            false);
+
+    /**
+     * Validates the configuration and copies the enabled rules and keywords.
+     *
+     * @throws IllegalArgumentException if a size is out of range, the line separator is empty or a keyword is not a name
+     * @throws NullPointerException     if the line separator, the enabled rules or the keywords are null
+     */
+    public FormatterConfig {
+        if (indentionSize < 1) {
+            throw new IllegalArgumentException("Indention size must be positive: " + indentionSize);
+        } else if (maxLineLength < 1) {
+            throw new IllegalArgumentException("Maximum line length must be positive: " + maxLineLength);
+        } else if (maxNewLines < 0) {
+            throw new IllegalArgumentException("Maximum number of new lines must not be negative: " + maxNewLines);
+        } else if (linesBeforeLemmaOrSection < 0) {
+            throw new IllegalArgumentException("Lines before lemmas or sections must not be negative: " + linesBeforeLemmaOrSection);
+        } else if (lineSeparator.isEmpty()) {
+            throw new IllegalArgumentException("Line separator must not be empty");
+        }
+        for (String keyword : keywords.keySet()) {
+            if (keyword.isEmpty() || !keyword.chars().allMatch(character -> LineSummary.isNameCharacter((char) character))) {
+                throw new IllegalArgumentException("Keyword must be a name: \"" + keyword + "\"");
+            }
+        }
+        enabledRules = Set.copyOf(enabledRules);
+        keywords = Map.copyOf(keywords);
+    }
+
+    /**
+     * Returns the configuration used by the command line formatter.
+     *
+     * @return the default configuration with all rules enabled
+     */
+    public static FormatterConfig defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Checks whether a rule is applied.
+     *
+     * @param rule the rule to check
+     * @return true if the rule is enabled, false otherwise
+     */
+    public boolean isEnabled(Rule rule) {
+        return enabledRules.contains(rule);
+    }
+
+    /**
+     * Derives a configuration with a different indentation size.
+     *
+     * @param indentionSize the number of spaces per indentation level
+     * @return the derived configuration
+     */
+    public FormatterConfig withIndentionSize(int indentionSize) {
+        return new FormatterConfig(indentionSize, maxLineLength, maxNewLines, linesBeforeLemmaOrSection, lineSeparator, enabledRules, keywords, unicodeSymbols);
+    }
+
+    /**
+     * Derives a configuration with a different maximum line length.
+     *
+     * @param maxLineLength the length above which lines starting with a proof helper are broken up
+     * @return the derived configuration
+     */
+    public FormatterConfig withMaxLineLength(int maxLineLength) {
+        return new FormatterConfig(indentionSize, maxLineLength, maxNewLines, linesBeforeLemmaOrSection, lineSeparator, enabledRules, keywords, unicodeSymbols);
+    }
+
+    /**
+     * Derives a configuration with a different maximum number of consecutive empty lines.
+     *
+     * @param maxNewLines the maximum number of consecutive empty lines that are kept
+     * @return the derived configuration
+     */
+    public FormatterConfig withMaxNewLines(int maxNewLines) {
+        return new FormatterConfig(indentionSize, maxLineLength, maxNewLines, linesBeforeLemmaOrSection, lineSeparator, enabledRules, keywords, unicodeSymbols);
+    }
+
+    /**
+     * Derives a configuration with a different number of empty lines before lemmas and sections.
+     *
+     * @param linesBeforeLemmaOrSection the number of empty lines placed before lemmas and sections
+     * @return the derived configuration
+     */
+    public FormatterConfig withLinesBeforeLemmaOrSection(int linesBeforeLemmaOrSection) {
+        return new FormatterConfig(indentionSize, maxLineLength, maxNewLines, linesBeforeLemmaOrSection, lineSeparator, enabledRules, keywords, unicodeSymbols);
+    }
+
+    /**
+     * Derives a configuration with a different line separator.
+     *
+     * @param lineSeparator the separator written after every line
+     * @return the derived configuration
+     */
+    public FormatterConfig withLineSeparator(String lineSeparator) {
+        return new FormatterConfig(indentionSize, maxLineLength, maxNewLines, linesBeforeLemmaOrSection, lineSeparator, enabledRules, keywords, unicodeSymbols);
+    }
+
+    /**
+     * Derives a configuration with a rule switched on or off.
+     *
+     * @param rule    the rule to switch
+     * @param enabled whether the rule is applied
+     * @return the derived configuration
+     */
+    public FormatterConfig withRule(Rule rule, boolean enabled) {
+        Set<Rule> rules = enabledRules.isEmpty() ? EnumSet.noneOf(Rule.class) : EnumSet.copyOf(enabledRules);
+        if (enabled) {
+            rules.add(rule);
+        } else {
+            rules.remove(rule);
+        }
+        return new FormatterConfig(indentionSize, maxLineLength, maxNewLines, linesBeforeLemmaOrSection, lineSeparator, rules, keywords, unicodeSymbols);
+    }
+
+    /**
+     * Derives a configuration that reads and writes Isabelle symbols as Unicode characters or as {@code \<name>}.
+     *
+     * @param unicodeSymbols whether symbols are written as Unicode characters
+     * @return the derived configuration
+     */
+    public FormatterConfig withUnicodeSymbols(boolean unicodeSymbols) {
+        return new FormatterConfig(indentionSize, maxLineLength, maxNewLines, linesBeforeLemmaOrSection, lineSeparator, enabledRules, keywords, unicodeSymbols);
+    }
+
+    /**
+     * Derives a configuration with a keyword classified differently. Lines starting with the keyword are then treated like lines starting
+     * with the built-in keywords of the category, for example {@code corollary} as a {@link KeywordCategory#LEMMA_STARTER}.
+     *
+     * @param keyword  the keyword, which must be a name
+     * @param category the category of the keyword, or {@link KeywordCategory#NONE} to remove a built-in keyword
+     * @return the derived configuration
+     */
+    public FormatterConfig withKeyword(String keyword, KeywordCategory category) {
+        Map<String, KeywordCategory> changedKeywords = new HashMap<>(keywords);
+        changedKeywords.put(keyword, category);
+        return new FormatterConfig(indentionSize, maxLineLength, maxNewLines, linesBeforeLemmaOrSection, lineSeparator, enabledRules, changedKeywords, unicodeSymbols);
+    }
+}
@@ -0,0 +1,439 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a formatter resident and formats theories sent over a Unix domain socket or a localhost TCP port, so editors do not pay for
+ * starting a JVM on every save.
+ * <p>
+ * Every connection is served by its own platform thread, so a long request cannot starve the others. A connection may send any number
+ * of requests, which are read and answered one after another: the next header is only read once the previous request was answered. A
+ * request consists of a header line followed by the UTF-8 encoded theory of at most {@value #MAX_THEORY_BYTES} bytes:
+ * <pre>
+ * FORMAT &lt;number of bytes&gt; &lt;document&gt;
+ * </pre>
+ * The document identifies the edited buffer, for example its path. A newer request for the same document cancels an older one that is
+ * still running, which is answered with {@code CANCELLED}. Since a connection is served sequentially, only a request sent on another
+ * connection can cancel a running one, so clients that want stale requests to be cancelled open a connection per request. A negative
+ * length is answered with {@code ERROR}. A length above the limit is answered with {@code ERROR} as well and closes the connection,
+ * since the body that may follow cannot be told apart from the next request. So is a body cut short by the client closing its side of
+ * the connection. Successful requests are answered with {@code OK <number of bytes>} followed
+ * by the formatted theory, failed requests with {@code ERROR <message>}. {@code PING} is answered with {@code PONG}, and
+ * {@code SHUTDOWN} stops the daemon. The daemon also stops once no request was received for the idle timeout.
+ */
+final class FormatterDaemon {
+
+    private static final int MAX_HEADER_LENGTH = 8192;
+    private static final int MAX_THEORY_BYTES = 64 * 1024 * 1024;
+    private static final int WARM_UP_ITERATIONS = 200;
+    private static final String WARM_UP_THEORY = """
+            theory Warm_Up imports Main begin
+            section  \\<open>Warm up\\<close>
+            definition  f::"nat=>nat" where "f x=x+1"
+            fun g :: "nat \\<Rightarrow> nat" where "g 0 = 0" | "g (Suc n) = g n"
+            lemma l: assumes "a" "b" shows "(a \\<and> b)"
+              using assms apply (auto simp: f_def) sledgehammer
+            proof -
+            have "(f x) > x" by (simp add: f_def)
+            then show ?thesis if "x=x" then by auto else by simp
+            qed
+            text \\<open>A comment
+            spanning lines\\<close>
+            end
+            """;
+
+    /**
+     * A request that is being formatted.
+     */
+    private static final class Request {
+
+        private volatile boolean cancelled;
+
+        /**
+         * Fails if a newer request for the same document arrived.
+         *
+         * @throws CancellationException if the request was cancelled
+         */
+        void checkCancelled() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+    /**
+     * Provides the lines of a request and aborts formatting as soon as the request is cancelled. The formatter only reads as far as its
+     * rules look ahead, so a stale request is stopped before the formatter reads its next line.
+     */
+    private static final class CancellableLines implements Iterator<String> {
+
+        private final Iterator<String> source;
+        private final Request request;
+
+        /**
+         * Creates the lines of a request.
+         *
+         * @param source  the lines of the theory
+         * @param request the request the theory belongs to
+         */
+        CancellableLines(Iterator<String> source, Request request) {
+            this.source = source;
+            this.request = request;
+        }
+
+        @Override
+        public boolean hasNext() {
+            request.checkCancelled();
+            return source.hasNext();
+        }
+
+        @Override
+        public String next() {
+            request.checkCancelled();
+            return source.next();
+        }
+    }
+
+    /**
+     * Collects the formatted theory of a request and aborts formatting as soon as the request is cancelled. The formatter writes every
+     * line once its indentation is final, so this also stops a stale request that has read all of its input and only has the last lines
+     * left to clean up and indent.
+     */
+    private static final class CancellableWriter extends Writer {
+
+        private final StringBuilder result;
+        private final Request request;
+
+        /**
+         * Creates a writer for a request.
+         *
+         * @param capacity the expected length of the formatted theory
+         * @param request  the request the theory belongs to
+         */
+        CancellableWriter(int capacity, Request request) {
+            this.result = new StringBuilder(capacity);
+            this.request = request;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            request.checkCancelled();
+            result.append(text, offset, offset + length);
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            request.checkCancelled();
+            result.append(buffer, offset, length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return result.toString();
+        }
+    }
+
+    private final IsabelleFormatter formatter;
+    private final SocketAddress address;
+    private final long idleTimeoutNanos;
+    private final Map<String, Request> latestRequests = new ConcurrentHashMap<>();
+    private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger runningRequests = new AtomicInteger();
+    private volatile long lastActivity = System.nanoTime();
+    private volatile ServerSocketChannel server;
+
+    /**
+     * Creates a daemon.
+     *
+     * @param formatter   the formatter used for all requests
+     * @param address     a {@link UnixDomainSocketAddress} or a loopback {@link InetSocketAddress} to listen on
+     * @param idleTimeout the time without requests after which the daemon stops
+     */
+    FormatterDaemon(IsabelleFormatter formatter, SocketAddress address, Duration idleTimeout) {
+        this.formatter = formatter;
+        this.address = address;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+    }
+
+    /**
+     * Creates the address of a daemon listening on a localhost TCP port.
+     *
+     * @param port the port, 0 to pick a free port
+     * @return the loopback address
+     */
+    static SocketAddress localhost(int port) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Listens for requests until the daemon is shut down or idle for too long. A stale socket file left behind by a daemon that was
+     * killed is replaced, but a socket another daemon is still listening on is left alone.
+     *
+     * @throws IOException if the daemon cannot listen on its address, or another daemon already listens on it
+     */
+    void serve() throws IOException {
+        boolean unixDomain = address instanceof UnixDomainSocketAddress;
+        if (unixDomain) {
+            removeStaleSocket((UnixDomainSocketAddress) address);
+        }
+
+        ScheduledExecutorService idleCheck = Executors.newSingleThreadScheduledExecutor();
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open(unixDomain ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+             ExecutorService connections = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("formatter-client-", 0).factory())) {
+            server = serverChannel;
+            serverChannel.bind(address);
+            System.out.println("Listening on " + serverChannel.getLocalAddress());
+            Thread.ofPlatform().daemon().name("formatter-warm-up").start(this::warmUp);
+            idleCheck.scheduleWithFixedDelay(this::shutDownIfIdle, 1, 1, TimeUnit.SECONDS);
+
+            while (serverChannel.isOpen()) {
+                SocketChannel client;
+                try {
+                    client = serverChannel.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                clients.add(client);
+                connections.submit(() -> serveClient(client));
+            }
+        } finally {
+            idleCheck.shutdownNow();
+            if (unixDomain) {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+        }
+    }
+
+    /**
+     * Deletes the socket file of a daemon that is no longer running. Whether a daemon is still running is found out by connecting to the
+     * socket, which only fails if nobody listens on it anymore.
+     *
+     * @param address the address of the socket
+     * @throws IOException if another daemon listens on the socket, or the stale socket file cannot be deleted
+     */
+    private static void removeStaleSocket(UnixDomainSocketAddress address) throws IOException {
+        if (!Files.exists(address.getPath())) {
+            return;
+        }
+        try {
+            SocketChannel.open(address).close();
+        } catch (ConnectException e) {
+            Files.deleteIfExists(address.getPath());
+            return;
+        }
+        throw new BindException("Another daemon is already listening on " + address.getPath());
+    }
+
+    /**
+     * Stops accepting connections and closes all open connections, which cancels their running requests.
+     */
+    void shutDown() {
+        try {
+            if (server != null) {
+                server.close();
+            }
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to shut down cleanly: " + e);
+        }
+    }
+
+    /**
+     * Shuts the daemon down if no request is running and the last request is longer ago than the idle timeout.
+     */
+    private void shutDownIfIdle() {
+        if (runningRequests.get() == 0 && System.nanoTime() - lastActivity > idleTimeoutNanos) {
+            System.out.println("Idle timeout reached, shutting down");
+            shutDown();
+        }
+    }
+
+    /**
+     * Formats a small theory repeatedly, so the rules are compiled by the JIT before the first real request arrives.
+     */
+    private void warmUp() {
+        for (int i = 0; i < WARM_UP_ITERATIONS && server.isOpen(); i++) {
+            formatter.format(WARM_UP_THEORY);
+        }
+    }
+
+    /**
+     * Answers the requests of a single connection until the client closes it.
+     *
+     * @param client the connection to the client
+     */
+    private void serveClient(SocketChannel client) {
+        try (client) {
+            InputStream input = Channels.newInputStream(client);
+            OutputStream output = Channels.newOutputStream(client);
+            String header;
+            while ((header = readHeader(input)) != null) {
+                lastActivity = System.nanoTime();
+                boolean keepServing = handleRequest(header, input, output);
+                output.flush();
+                if (!keepServing) {
+                    return;
+                }
+                lastActivity = System.nanoTime();
+            }
+        } catch (ClosedChannelException e) {
+            // The daemon was shut down while the client was connected
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e);
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    /**
+     * Answers a single request.
+     *
+     * @param header the header line of the request
+     * @param input  the stream to read the body of the request from
+     * @param output the stream to write the response to
+     * @return false if the connection should be closed, true otherwise
+     * @throws IOException if the connection fails
+     */
+    private boolean handleRequest(String header, InputStream input, OutputStream output) throws IOException {
+        String[] parts = header.split(" ", 3);
+        switch (parts[0]) {
+            case "PING" -> writeLine(output, "PONG");
+            case "SHUTDOWN" -> {
+                writeLine(output, "BYE");
+                output.flush();
+                shutDown();
+                return false;
+            }
+            case "FORMAT" -> {
+                int length;
+                try {
+                    length = Integer.parseInt(parts[1]);
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    writeLine(output, "ERROR Expected FORMAT <number of bytes> <document>");
+                    return true;
+                }
+                if (length < 0) {
+                    writeLine(output, "ERROR The number of bytes must not be negative");
+                    return true;
+                } else if (length > MAX_THEORY_BYTES) {
+                    writeLine(output, "ERROR The theory must not be larger than " + MAX_THEORY_BYTES + " bytes");
+                    return false;
+                }
+                byte[] body = input.readNBytes(length);
+                if (body.length < length) {
+                    writeLine(output, "ERROR Connection closed after " + body.length + " of " + length + " bytes");
+                    return false;
+                }
+                format(parts.length > 2 ? parts[2] : "", new String(body, StandardCharsets.UTF_8), output);
+            }
+            default -> writeLine(output, "ERROR Unknown request: " + parts[0]);
+        }
+        return true;
+    }
+
+    /**
+     * Formats a theory and writes the response, cancelling the previous request for the same document.
+     *
+     * @param document the identifier of the edited buffer
+     * @param theory   the content of the buffer
+     * @param output   the stream to write the response to
+     * @throws IOException if the connection fails
+     */
+    private void format(String document, String theory, OutputStream output) throws IOException {
+        Request request = new Request();
+        Request previous = latestRequests.put(document, request);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+
+        runningRequests.incrementAndGet();
+        try {
+            CancellableWriter result = new CancellableWriter(theory.length() + theory.length() / 4, request);
+            FormatStatistics statistics = new FormatStatistics(document);
+            formatter.format(new CancellableLines(theory.lines().iterator(), request), result, statistics);
+            statistics.finish();
+            byte[] formatted = result.toString().getBytes(StandardCharsets.UTF_8);
+            writeLine(output, "OK " + formatted.length);
+            output.write(formatted);
+        } catch (CancellationException e) {
+            writeLine(output, "CANCELLED");
+        } catch (RuntimeException e) {
+            writeLine(output, "ERROR " + String.valueOf(e).replace('\n', ' '));
+        } finally {
+            runningRequests.decrementAndGet();
+            latestRequests.remove(document, request);
+        }
+    }
+
+    /**
+     * Reads the header line of the next request.
+     *
+     * @param input the stream to read from
+     * @return the header without the line break, or null if the client closed the connection
+     * @throws IOException if the connection fails or the header is too long
+     */
+    private static String readHeader(InputStream input) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int read;
+        while ((read = input.read()) != '\n') {
+            if (read < 0) {
+                if (header.size() == 0) {
+                    return null;
+                }
+                throw new EOFException("Connection closed in the middle of a header");
+            } else if (header.size() >= MAX_HEADER_LENGTH) {
+                throw new IOException("Header longer than " + MAX_HEADER_LENGTH + " bytes");
+            }
+            header.write(read);
+        }
+        return header.toString(StandardCharsets.UTF_8).strip();
+    }
+
+    /**
+     * Writes a single line of the protocol.
+     *
+     * @param output the stream to write to
+     * @param line   the line without the line break
+     * @throws IOException if the connection fails
+     */
+    private static void writeLine(OutputStream output, String line) throws IOException {
+        output.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,78 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events emitted by the formatter. They are only recorded while a recording with these events enabled is
+ * running, for example after starting the JVM with {@code -XX:StartFlightRecording}.
+ */
+final class FormatterEvents {
+
+    private FormatterEvents() {
+    }
+
+    /**
+     * Emitted once for every formatted file, spanning the whole time the file was formatted.
+     */
+    @Name("isabelle.formatter.FileFormatted")
+    @Label("File Formatted")
+    @Category("Isabelle Formatter")
+    @Description("A theory file was formatted")
+    @StackTrace(false)
+    static final class FileFormatted extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Lines In")
+        long linesIn;
+
+        @Label("Lines Out")
+        long linesOut;
+
+        @Label("Splits")
+        @Description("Lines split off and pushed back in front of the read cursor")
+        long splits;
+
+        @Label("Brackets Removed")
+        long bracketsRemoved;
+
+        @Label("Solver Helpers Stripped")
+        long solverHelpersStripped;
+
+        @Label("Apply Auto Markers")
+        long applyAutoMarkers;
+    }
+
+    /**
+     * Emitted once for every pass and file, summing up all invocations of the pass for the file.
+     */
+    @Name("isabelle.formatter.PassCompleted")
+    @Label("Pass Completed")
+    @Category("Isabelle Formatter")
+    @Description("The accumulated cost of one formatting pass over a file")
+    @StackTrace(false)
+    static final class PassCompleted extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Pass")
+        String pass;
+
+        @Label("Total Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long totalTime;
+
+        @Label("Invocations")
+        long invocations;
+
+        @Label("Rewrites")
+        @Description("Invocations that changed the line")
+        long rewrites;
+    }
+}
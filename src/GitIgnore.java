@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rules of a single {@code .gitignore} file, covering the common subset of its syntax: comments, negation with {@code !}, patterns
+ * restricted to directories by a trailing {@code /}, patterns anchored to the directory of the file by a {@code /} in them, and the
+ * wildcards {@code *}, {@code ?}, {@code [...]} and {@code **}.
+ */
+final class GitIgnore {
+
+    private static final GitIgnore EMPTY = new GitIgnore(null, List.of());
+
+    private final Path directory;
+    private final List<Rule> rules;
+
+    /**
+     * A single line of a {@code .gitignore} file.
+     *
+     * @param matcher       the pattern translated into a glob
+     * @param matchName     whether the pattern matches the name of a path instead of its path relative to the directory of the file
+     * @param negated       whether a match re-includes the path
+     * @param directoryOnly whether the pattern only matches directories
+     */
+    private record Rule(PathMatcher matcher, boolean matchName, boolean negated, boolean directoryOnly) {
+    }
+
+    private GitIgnore(Path directory, List<Rule> rules) {
+        this.directory = directory;
+        this.rules = rules;
+    }
+
+    /**
+     * Loads the {@code .gitignore} file of a directory.
+     *
+     * @param directory the directory
+     * @return the rules of the file, no rules if the directory does not contain one
+     * @throws IOException if the file exists but cannot be read
+     */
+    static GitIgnore load(Path directory) throws IOException {
+        Path file = directory.resolve(".gitignore");
+        if (!Files.isRegularFile(file)) {
+            return EMPTY;
+        }
+
+        List<Rule> rules = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            String pattern = line.stripTrailing();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                continue;
+            }
+            boolean negated = pattern.startsWith("!");
+            if (negated || pattern.startsWith("\\")) {
+                pattern = pattern.substring(1);
+            }
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            boolean matchName = !pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            rules.add(new Rule(FileSystems.getDefault().getPathMatcher("glob:" + toGlob(pattern)), matchName, negated, directoryOnly));
+        }
+        return new GitIgnore(directory, rules);
+    }
+
+    /**
+     * Translates a {@code .gitignore} pattern into a glob. Both treat {@code *}, {@code ?} and {@code [...]} alike, but {@code **} in a
+     * {@code .gitignore} file also matches no directory at all, and braces are no groups.
+     *
+     * @param pattern the pattern without negation, anchoring and trailing slash
+     * @return the glob
+     */
+    private static String toGlob(String pattern) {
+        String glob = pattern.replace("{", "\\{").replace("}", "\\}").replace("/**/", "{/,/**/}");
+        if (glob.startsWith("**/")) {
+            glob = "{,**/}" + glob.substring(3);
+        }
+        return glob;
+    }
+
+    /**
+     * Decides whether a path below the directory of the file is ignored.
+     *
+     * @param path        the path
+     * @param isDirectory whether the path is a directory
+     * @return true if the last matching rule ignores the path, false if it re-includes it, null if no rule matches
+     */
+    Boolean isIgnored(Path path, boolean isDirectory) {
+        if (rules.isEmpty() || !path.startsWith(directory)) {
+            return null;
+        }
+        Path relativePath = directory.relativize(path);
+        Path name = path.getFileName();
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if ((!rule.directoryOnly() || isDirectory) && rule.matcher().matches(rule.matchName() ? name : relativePath)) {
+                return !rule.negated();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,1078 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Formats Isabelle theories according to the rules described in the README.
+ * <p>
+ * A formatter only holds its immutable {@link FormatterConfig}, and all state of a formatting run lives in the call that formats a
+ * theory. A single formatter can therefore be shared and called concurrently from any number of threads.
+ */
+public final class IsabelleFormatter {
+
+    static final String COMMENT_STARTER = "text";
+    static final String[] TEXT_STARTERS = {"section", "subsection", "subsubsection"};
+    static final String[] LEMMA_STARTERS = {"lemma", "theorem", "lemmas", "theorems"};
+    static final String[] OTHER_STARTERS = {"fun", "definition", "function", "datatype", "type_synonym", "theory", "begin", "sledgehammer_params", "abbreviation", "inductive", "locale", "end", "fun_cases", "inductive_set", "inductive_cases", "inductive_simps", "functor", "datatype_compat"};
+    static final String[] STEP_STARTERS = {"then", "have", "also", "finally", "hence", "thus", "moreover", "case", "show", "obtain", "assume"};
+    static final String[] PROOF_HELPERS = {"using", "unfolding"};
+    private static final String[] PROVERS = {"verit", "full_types"};
+    private static final String[] LINE_ENDERS = {"of", "where", "\\|"};
+    private static final String[] LINE_STARTERS = {"then", "else"};
+
+    /**
+     * The minimum number of lines of a chunk formatted on its own. Theories shorter than two chunks are formatted sequentially.
+     */
+    static final int PARALLEL_CHUNK_LINES = 20_000;
+
+    private static final Pattern MULTIPLE_SPACES_PATTERN = Pattern.compile("\\s{2,}");
+
+    // The patterns of the single rules live in holder classes, so each is compiled when its rule is first applied rather than when the
+    // formatter is loaded, and short runs do not pay for rules they never reach. The JVM initializes a holder thread-safely on first use
+
+    /**
+     * The patterns of {@link #moveLineBreakers(String, List, PendingLines)}.
+     */
+    private static final class LineBreakerPatterns {
+        static final Pattern[] LEADING_LINE_ENDER_PATTERNS = Arrays.stream(LINE_ENDERS)
+                .map(lineEnder -> Pattern.compile(lineEnder + "([\\s()\"].*)?")).toArray(Pattern[]::new);
+    }
+
+    /**
+     * The patterns of {@link #breakLine(String, PendingLines)}.
+     */
+    private static final class BreakLinePatterns {
+        static final Pattern[] INNER_LINE_ENDER_PATTERNS = Arrays.stream(LINE_ENDERS)
+                .map(lineEnder -> Pattern.compile(".*[\\s)]" + lineEnder + "[\\s()].*")).toArray(Pattern[]::new);
+        static final Pattern[] LINE_ENDER_SPLIT_PATTERNS = Arrays.stream(LINE_ENDERS).map(Pattern::compile).toArray(Pattern[]::new);
+        static final Pattern[] INNER_LINE_STARTER_PATTERNS = Arrays.stream(LINE_STARTERS)
+                .map(lineStarter -> Pattern.compile(".*[\\s)]" + lineStarter + "[\\s()].*")).toArray(Pattern[]::new);
+        static final Pattern[] LINE_STARTER_SPLIT_PATTERNS = Arrays.stream(LINE_STARTERS).map(Pattern::compile).toArray(Pattern[]::new);
+        static final Pattern APPLY_SPLIT_PATTERN = Pattern.compile("apply ");
+        static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s");
+        static final Pattern BY_SPLIT_PATTERN = Pattern.compile("by");
+        static final Pattern ASSUMES_SPLIT_PATTERN = Pattern.compile("assumes");
+        static final Pattern SHOWS_SPLIT_PATTERN = Pattern.compile("shows");
+        static final Pattern INNER_AND_PATTERN = Pattern.compile(".*[\\s)\"]and[\\s()\"].*");
+        static final Pattern AND_SPLIT_PATTERN = Pattern.compile("and");
+        static final Pattern ADJACENT_QUOTES_LINE_PATTERN = Pattern.compile(".*\"\\s?\".*");
+        static final Pattern ADJACENT_QUOTES_PATTERN = Pattern.compile("\"\\s?\"");
+    }
+
+    /**
+     * The patterns splitting at the {@link #PROOF_HELPERS}, shared by {@link #breakLine(String, PendingLines)} and
+     * {@link #removeMultipleProofHelpers(String, List)}.
+     */
+    private static final class ProofHelperPatterns {
+        static final Pattern[] PROOF_HELPER_SPLIT_PATTERNS = Arrays.stream(PROOF_HELPERS).map(Pattern::compile).toArray(Pattern[]::new);
+    }
+
+    /**
+     * The patterns of {@link #removeUnnecessaryBrackets(String, PendingLines, boolean)}.
+     */
+    private static final class BracketPatterns {
+        static final String PROVERS_REGEX = "(?!" + String.join("\\b)(?!", PROVERS) + "\\b)";
+        static final Pattern SINGLE_TERM_BRACKETS_PATTERN = Pattern.compile("\\(" + PROVERS_REGEX + "([^\\s()',[0-9]]+)\\)");
+    }
+
+    /**
+     * The patterns of {@link #addAnds(String, PendingLines, List)}.
+     */
+    private static final class AssumptionPatterns {
+        static final Pattern ASSUMPTION_SPLIT_PATTERN = Pattern.compile("\"\\s\"|\"\"");
+    }
+
+    /**
+     * The result of reformatting the blocks touched by an edit.
+     *
+     * @param startLine   the index of the first replaced line
+     * @param endLine     the index after the last replaced line
+     * @param replacement the formatted lines replacing the lines from the start line to the end line, each followed by the configured
+     *                    line separator
+     */
+    public record BlockEdit(int startLine, int endLine, String replacement) {
+    }
+
+    /**
+     * A chunk of a theory formatted on its own, starting at a top-level block.
+     *
+     * @param start          the index of the first line of the chunk
+     * @param indentedLines  the formatted lines of the chunk
+     * @param leadingLines   the number of leading indented lines that only exist because the chunk was formatted on its own, the
+     *                       empty lines placed before its first line
+     * @param firstLine      the first line after the leading lines as passed to the indenter
+     * @param lastCleanLines the last cleaned lines as passed to the indenter, at most {@link FormatterConfig#linesBeforeLemmaOrSection()}
+     * @param endsOutside    whether the chunk ends outside of quoted terms, so the next chunk does not depend on it
+     * @param statistics     the statistics of the chunk, without the written lines
+     */
+    private record Chunk(int start, List<String> indentedLines, int leadingLines, String firstLine, List<String> lastCleanLines,
+                         boolean endsOutside, FormatStatistics statistics) {
+    }
+
+    private final FormatterConfig config;
+    private final KeywordClassifier keywords;
+    private final Map<String, Pattern> commentStarterPatterns;
+    private final RulePipeline pipeline;
+
+    /**
+     * Creates a formatter with the {@link FormatterConfig#defaults() default configuration}.
+     */
+    public IsabelleFormatter() {
+        this(FormatterConfig.defaults());
+    }
+
+    /**
+     * Creates a formatter with the given configuration.
+     *
+     * @param config the configuration used for every formatted theory
+     */
+    public IsabelleFormatter(FormatterConfig config) {
+        this.config = Objects.requireNonNull(config, "config");
+        this.keywords = new KeywordClassifier(config);
+        this.commentStarterPatterns = Stream.concat(keywords.keywords(FormatterConfig.KeywordCategory.TEXT_STARTER),
+                        keywords.keywords(FormatterConfig.KeywordCategory.COMMENT_STARTER))
+                .collect(Collectors.toMap(starter -> starter, starter -> Pattern.compile(Pattern.quote(starter) + "(?!\\s)")));
+        this.pipeline = new RulePipeline(ruleDefinitions(), config.enabledRules());
+    }
+
+    /**
+     * Declares the rules applied to every line, in the order they are applied, together with the state each of them reads and rewrites.
+     *
+     * @return the rules
+     */
+    private List<RulePipeline.RuleDefinition> ruleDefinitions() {
+        Set<RulePipeline.State> none = EnumSet.noneOf(RulePipeline.State.class);
+        Set<RulePipeline.State> quotes = EnumSet.of(RulePipeline.State.QUOTES);
+        Set<RulePipeline.State> pendingLines = EnumSet.of(RulePipeline.State.PENDING_LINES);
+        Set<RulePipeline.State> cleanLines = EnumSet.of(RulePipeline.State.CLEAN_LINES);
+        Set<RulePipeline.State> bothLines = EnumSet.of(RulePipeline.State.PENDING_LINES, RulePipeline.State.CLEAN_LINES);
+        return List.of(
+                new RulePipeline.RuleDefinition(FormatStatistics.Pass.NORMALIZE_SPACES, quotes, none,
+                        (line, context) -> normalizeSpaces(line, context.insideQuotes())),
+                new RulePipeline.RuleDefinition(FormatStatistics.Pass.MOVE_LINE_BREAKERS, bothLines, bothLines,
+                        (line, context) -> moveLineBreakers(line, context.cleanLines(), context.lines())),
+                new RulePipeline.RuleDefinition(FormatStatistics.Pass.BREAK_LINE, none, pendingLines,
+                        (line, context) -> breakLine(line, context.lines())),
+                new RulePipeline.RuleDefinition(FormatStatistics.Pass.REMOVE_MULTIPLE_PROOF_HELPERS, cleanLines, cleanLines,
+                        (line, context) -> removeMultipleProofHelpers(line, context.cleanLines())),
+                new RulePipeline.RuleDefinition(FormatStatistics.Pass.REMOVE_UNNECESSARY_BRACKETS, EnumSet.of(RulePipeline.State.QUOTES,
+                        RulePipeline.State.PENDING_LINES), pendingLines,
+                        (line, context) -> removeUnnecessaryBrackets(line, context.lines(), context.insideQuotes())),
+                new RulePipeline.RuleDefinition(FormatStatistics.Pass.ADD_ANDS, cleanLines, bothLines,
+                        (line, context) -> addAnds(line, context.lines(), context.cleanLines())),
+                new RulePipeline.RuleDefinition(FormatStatistics.Pass.BREAK_LONG_LINES, none, pendingLines,
+                        (line, context) -> breakLongLines(line, context.lines())),
+                new RulePipeline.RuleDefinition(FormatStatistics.Pass.ADD_APPLY_AUTO_BONK, CharacterRules.ADD_APPLY_AUTO_BONK),
+                new RulePipeline.RuleDefinition(FormatStatistics.Pass.REMOVE_SOLVER_HELPERS, CharacterRules.REMOVE_SOLVER_HELPERS));
+    }
+
+    /**
+     * Returns the configuration of this formatter.
+     *
+     * @return the configuration
+     */
+    public FormatterConfig config() {
+        return config;
+    }
+
+    /**
+     * Formats a complete theory in memory.
+     *
+     * @param theory the content of the theory
+     * @return the formatted theory, every line followed by the configured line separator
+     */
+    public String format(CharSequence theory) {
+        StringWriter writer = new StringWriter(theory.length() + theory.length() / 4);
+        FormatStatistics statistics = new FormatStatistics("<memory>");
+        try {
+            format(theory.toString().lines().toList(), writer, statistics);
+            statistics.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Formatting in memory cannot fail to read or write", e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Formats a theory read from a reader.
+     *
+     * @param reader the reader providing the theory, read to its end but not closed
+     * @return the formatted theory, every line followed by the configured line separator
+     * @throws IOException if the reader fails
+     */
+    public String format(Reader reader) throws IOException {
+        StringWriter writer = new StringWriter();
+        format(reader, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Formats a theory read from a reader and writes the result to a writer. Neither the reader nor the writer is closed, and the writer
+     * is not flushed.
+     *
+     * @param reader the reader providing the theory, read to its end
+     * @param writer the writer receiving the formatted theory
+     * @throws IOException if the reader or the writer fails
+     */
+    public void format(Reader reader, Writer writer) throws IOException {
+        BufferedReader bufferedReader = reader instanceof BufferedReader buffered ? buffered : new BufferedReader(reader);
+        FormatStatistics statistics = new FormatStatistics("<reader>");
+        format(bufferedReader, writer, statistics);
+        statistics.finish();
+    }
+
+    /**
+     * Reformats only the top-level blocks touched by an edit, so the cost depends on the size of the edited blocks instead of the size of
+     * the theory. All other lines are assumed to be formatted already. Blocks are delimited by lines starting with a lemma, section or
+     * definition keyword in the first column, and the state carried into a block is the state at such a line: no open quotes and no
+     * indentation. If formatting the blocks would look at or change lines outside of them, for example while a quote opened by the edit
+     * is not closed yet, the whole theory is formatted once instead.
+     *
+     * @param lines            the lines of the theory without line separators
+     * @param firstChangedLine the index of the first changed line
+     * @param lastChangedLine  the index of the last changed line, inclusive
+     * @return the edit replacing the enclosing blocks with their formatted version
+     * @throws IndexOutOfBoundsException if the changed lines are not within the theory
+     */
+    public BlockEdit formatBlocks(List<String> lines, int firstChangedLine, int lastChangedLine) {
+        Objects.checkFromToIndex(firstChangedLine, lastChangedLine + 1, lines.size());
+        int start = TheoryBlocks.blockStart(keywords, lines, firstChangedLine);
+        int end = TheoryBlocks.blockEnd(keywords, lines, start, lastChangedLine);
+
+        FormatStatistics statistics = new FormatStatistics("<blocks>");
+        String replacement = formatRegion(lines, start, end, statistics);
+        if (replacement == null) {
+            start = 0;
+            end = lines.size();
+            replacement = formatRegion(lines, start, end, statistics);
+        }
+        statistics.finish();
+        return new BlockEdit(start, end, replacement);
+    }
+
+    /**
+     * Formats the lines of a region as if the whole theory was formatted, seeding the cleaned lines with the lines before the region. The
+     * window of cleaned lines is seeded to its full capacity, so the passes can look back exactly as far as when formatting the whole
+     * theory, and reading lines beyond the end of the region is reported by the {@link PendingLines} of the region.
+     *
+     * @param lines      the lines of the theory
+     * @param start      the index of the first line of the region
+     * @param end        the index after the last line of the region
+     * @param statistics the statistics of the edit
+     * @return the formatted region, or null if formatting the region depends on or changes lines outside of it, never null for the whole
+     *         theory
+     */
+    private String formatRegion(List<String> lines, int start, int end, FormatStatistics statistics) {
+        boolean wholeTheory = start == 0 && end == lines.size();
+        int windowCapacity = Math.max(1, config.linesBeforeLemmaOrSection());
+        List<String> context = lines.subList(Math.max(0, start - windowCapacity), start).stream().map(line -> readSymbols(line).strip()).toList();
+        List<String> passedOnContext = new ArrayList<>();
+        StringWriter writer = new StringWriter();
+        LineSummary.Cache summaries = new LineSummary.Cache();
+        LineIndenter indenter = new LineIndenter(config.indentionSize(), keywords, summaries, line -> writeLine(writer, line));
+        LineWindow cleanLines = new LineWindow(windowCapacity, line -> {
+            if (passedOnContext.size() < context.size()) {
+                passedOnContext.add(line);
+            } else {
+                indenter.accept(line);
+            }
+        });
+        context.forEach(cleanLines::add);
+
+        try {
+            boolean insideQuotes = cleanUpLines(new PendingLines(readSymbols(lines.subList(start, end).iterator()), !wholeTheory),
+                    cleanLines, summaries, statistics);
+            if (end < lines.size()) {
+                String nextLine = readSymbols(lines.get(end)).strip();
+                if (insideQuotes || shouldUniteWithLastLine(nextLine, cleanLines)) {
+                    return null;
+                }
+                addEmptyLinesBeforeLemmaOrSection(nextLine, cleanLines);
+            }
+        } catch (PendingLines.RegionOverrunException e) {
+            return null;
+        }
+
+        cleanLines.flush();
+        if (!passedOnContext.equals(context)) {
+            return null;
+        }
+        indenter.finish();
+        return writer.toString();
+    }
+
+    /**
+     * Formats the lines read from the reader and writes the clean lines to the writer, collecting statistics about the applied rules.
+     * Lines are only read as far as the rules look ahead, and clean lines are written as soon as their indentation is final, so memory
+     * use does not grow with the length of the input.
+     *
+     * @param reader     the reader providing the original lines
+     * @param writer     the writer receiving the clean lines
+     * @param statistics the statistics of the file, updated with the time spent in every pass
+     */
+    void format(BufferedReader reader, Writer writer, FormatStatistics statistics) throws IOException {
+        format(reader.lines().iterator(), writer, statistics);
+    }
+
+    /**
+     * Formats the given original lines and writes the clean lines to the writer, collecting statistics about the applied rules.
+     *
+     * @param originalLines the original lines, consumed as far as the rules look ahead
+     * @param writer        the writer receiving the clean lines
+     * @param statistics    the statistics of the file, updated with the time spent in every pass
+     */
+    void format(Iterator<String> originalLines, Writer writer, FormatStatistics statistics) throws IOException {
+        try {
+            LineSummary.Cache summaries = new LineSummary.Cache();
+            LineIndenter indenter = new LineIndenter(config.indentionSize(), keywords, summaries, line -> {
+                statistics.lineWritten();
+                writeLine(writer, line);
+            });
+            LineWindow cleanLines = new LineWindow(Math.max(1, config.linesBeforeLemmaOrSection()),
+                    line -> statistics.measure(FormatStatistics.Pass.INDENT_LINES, () -> indenter.accept(line)));
+            PendingLines lines = new PendingLines(readSymbols(originalLines));
+            cleanUpLines(lines, cleanLines, summaries, statistics);
+            cleanLines.flush();
+            statistics.measure(FormatStatistics.Pass.INDENT_LINES, indenter::finish);
+            statistics.recordInput(lines);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Formats the given original lines and writes the clean lines to the writer, collecting statistics about the applied rules. Theories
+     * of at least two {@link #PARALLEL_CHUNK_LINES chunks} are split into chunks of whole top-level blocks, which are formatted in
+     * parallel and then stitched together. The output is the same as formatting the theory sequentially.
+     *
+     * @param originalLines the original lines
+     * @param writer        the writer receiving the clean lines
+     * @param statistics    the statistics of the file, updated with the time spent in every pass
+     */
+    void format(List<String> originalLines, Writer writer, FormatStatistics statistics) throws IOException {
+        format(originalLines, writer, statistics, PARALLEL_CHUNK_LINES);
+    }
+
+    /**
+     * Formats the given original lines, splitting them into chunks of at least the given number of lines that are formatted in parallel.
+     * Chunks are forked into the fork-join pool of the calling thread, or the common pool if it is none, so a batch run formats the
+     * chunks of a large theory on its own workers.
+     * <p>
+     * A chunk starts at a block starter in the first column outside of quotes and cartouches, where the indentation is reset to 0, and is
+     * formatted as if it were a theory of its own. The stitching step then places the empty lines before its first line based on the
+     * actual end of the previous chunk. If a chunk looks beyond its end, changes or unites with the lines before it, or a quoted term is
+     * still open at its end, the theory is formatted sequentially instead.
+     *
+     * @param originalLines the original lines
+     * @param writer        the writer receiving the clean lines
+     * @param statistics    the statistics of the file, updated with the time spent in every pass
+     * @param chunkLines    the minimum number of lines of a chunk
+     */
+    void format(List<String> originalLines, Writer writer, FormatStatistics statistics, int chunkLines) throws IOException {
+        List<Integer> starts = originalLines.size() < 2 * chunkLines ? List.of(0) : TheoryBlocks.chunkStarts(keywords, originalLines, chunkLines);
+        if (starts.size() < 2) {
+            format(originalLines.iterator(), writer, statistics);
+            return;
+        }
+
+        List<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+        for (int i = 0; i < starts.size(); i++) {
+            int start = starts.get(i);
+            List<String> lines = originalLines.subList(start, i + 1 < starts.size() ? starts.get(i + 1) : originalLines.size());
+            tasks.add(ForkJoinTask.adapt(() -> formatChunk(start, lines, statistics.path())));
+        }
+        List<Chunk> chunks = ForkJoinTask.invokeAll(tasks).stream().map(ForkJoinTask::join).toList();
+
+        List<Integer> emptyLinesBefore = stitch(originalLines, chunks);
+        if (emptyLinesBefore == null) {
+            format(originalLines.iterator(), writer, statistics);
+            return;
+        }
+
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk chunk = chunks.get(i);
+                for (int j = 0; j < emptyLinesBefore.get(i); j++) {
+                    statistics.lineWritten();
+                    writeLine(writer, "");
+                }
+                int firstLine = i == 0 ? 0 : chunk.leadingLines();
+                for (String line : chunk.indentedLines().subList(firstLine, chunk.indentedLines().size())) {
+                    statistics.lineWritten();
+                    writeLine(writer, line);
+                }
+                statistics.add(chunk.statistics());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Checks that the chunks can be joined to the result of formatting the theory sequentially, and computes the empty lines placed
+     * before every chunk.
+     *
+     * @param originalLines the original lines of the theory
+     * @param chunks        the formatted chunks, null for chunks that failed
+     * @return for every chunk the number of empty lines placed before its lines without its leading lines, or null if the chunks cannot
+     * be joined
+     */
+    private List<Integer> stitch(List<String> originalLines, List<Chunk> chunks) {
+        List<Integer> emptyLinesBefore = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            if (chunk == null) {
+                return null;
+            } else if (i == 0) {
+                emptyLinesBefore.add(0);
+                continue;
+            }
+
+            Chunk previous = chunks.get(i - 1);
+            if (!previous.endsOutside() || chunk.firstLine() == null || !TheoryBlocks.isBlockStart(keywords, chunk.firstLine())
+                    || previous.indentedLines().size() - previous.leadingLines() < config.linesBeforeLemmaOrSection()
+                    || chunk.firstLine().contains("proof") && !previous.lastCleanLines().isEmpty()
+                    && previous.lastCleanLines().getLast().contains("show ")) {
+                return null;
+            }
+
+            String firstLine = MULTIPLE_SPACES_PATTERN.matcher(originalLines.get(chunk.start()).trim()).replaceAll(" ");
+            List<String> lastCleanLines = new ArrayList<>(previous.lastCleanLines());
+            addEmptyLinesBeforeLemmaOrSection(firstLine, lastCleanLines);
+            emptyLinesBefore.add(lastCleanLines.size() - previous.lastCleanLines().size());
+        }
+        return emptyLinesBefore;
+    }
+
+    /**
+     * Formats a chunk of a theory as if it were a theory of its own.
+     *
+     * @param start the index of the first line of the chunk in the theory
+     * @param lines the original lines of the chunk
+     * @param path  the path of the theory, used to identify the statistics
+     * @return the formatted chunk, or null if formatting it fails, for example because it looks beyond its last line
+     */
+    private Chunk formatChunk(int start, List<String> lines, String path) {
+        FormatStatistics statistics = new FormatStatistics(path);
+        List<String> indentedLines = new ArrayList<>(lines.size() + lines.size() / 4);
+        int linesBefore = config.linesBeforeLemmaOrSection();
+        ArrayDeque<String> lastCleanLines = new ArrayDeque<>(linesBefore + 1);
+        String[] firstLine = new String[1];
+        int[] leadingLines = {-1};
+
+        LineSummary.Cache summaries = new LineSummary.Cache();
+        LineIndenter indenter = new LineIndenter(config.indentionSize(), keywords, summaries, indentedLines::add);
+        LineWindow cleanLines = new LineWindow(Math.max(1, linesBefore), line -> {
+            if (leadingLines[0] < 0 && !line.isBlank()) {
+                leadingLines[0] = indentedLines.size();
+                firstLine[0] = line;
+            }
+            lastCleanLines.addLast(line);
+            if (lastCleanLines.size() > linesBefore) {
+                lastCleanLines.removeFirst();
+            }
+            statistics.measure(FormatStatistics.Pass.INDENT_LINES, () -> indenter.accept(line));
+        });
+
+        try {
+            PendingLines pendingLines = new PendingLines(readSymbols(lines.iterator()));
+            boolean insideQuotes = cleanUpLines(pendingLines, cleanLines, summaries, statistics);
+            cleanLines.flush();
+            boolean endsOutside = !insideQuotes && !indenter.isInsideQuotes();
+            statistics.measure(FormatStatistics.Pass.INDENT_LINES, indenter::finish);
+            statistics.recordInput(pendingLines);
+
+            FormatterConfig.KeywordCategory category = keywords.classify(MULTIPLE_SPACES_PATTERN.matcher(lines.getFirst().trim()).replaceAll(" "));
+            int expectedLeadingLines = category == FormatterConfig.KeywordCategory.TEXT_STARTER
+                    || category == FormatterConfig.KeywordCategory.LEMMA_STARTER ? linesBefore : 0;
+            return new Chunk(start, indentedLines, expectedLeadingLines, leadingLines[0] == expectedLeadingLines ? firstLine[0] : null,
+                    List.copyOf(lastCleanLines), endsOutside, statistics);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Cleans up all pending lines according to the specified rules, adding the results to the cleaned lines.
+     *
+     * @param lines      the lines that still have to be processed
+     * @param cleanLines the list of cleaned lines
+     * @param summaries  the summaries of the lines of the formatting run
+     * @param statistics the statistics of the file
+     * @return whether the end of the last line is inside quotes
+     */
+    private boolean cleanUpLines(PendingLines lines, List<String> cleanLines, LineSummary.Cache summaries, FormatStatistics statistics) {
+        int newLines = config.maxNewLines();
+        boolean insideQuotes = false;
+
+        while (lines.hasNext()) {
+            String originalLine = lines.next();
+            String line = originalLine.trim();
+            line = MULTIPLE_SPACES_PATTERN.matcher(line).replaceAll(" ");
+
+            if (newLines >= config.maxNewLines() && line.isBlank()) {
+                continue;
+            } else if (line.isBlank()) {
+                if (newLines < config.maxNewLines()) {
+                    cleanLines.add("");
+                }
+                newLines++;
+                continue;
+            } else {
+                newLines = 0;
+            }
+
+            addEmptyLinesBeforeLemmaOrSection(line, cleanLines);
+
+            FormatterConfig.KeywordCategory category = keywords.classify(line);
+            if (category == FormatterConfig.KeywordCategory.TEXT_STARTER || category == FormatterConfig.KeywordCategory.COMMENT_STARTER) {
+                statistics.measure(FormatStatistics.Pass.HANDLE_COMMENT, () -> handleComment(originalLine, lines, cleanLines, summaries));
+                continue;
+            }
+
+            line = processLine(line, lines, cleanLines, insideQuotes, statistics);
+
+            if (line.isBlank()) {
+                continue;
+            }
+
+            if (summaries.summarize(line).oddQuotes()) {
+                insideQuotes = !insideQuotes;
+            }
+
+            if (shouldUniteWithLastLine(line, cleanLines)) {
+                cleanLines.set(cleanLines.size() - 1, cleanLines.getLast() + " " + line);
+            } else {
+                cleanLines.add(line);
+            }
+        }
+        return insideQuotes;
+    }
+
+    /**
+     * Writes a single line followed by the configured line separator, with Unicode symbols if {@link FormatterConfig#unicodeSymbols()}
+     * is enabled.
+     *
+     * @param writer the writer to write to
+     * @param line   the line to write
+     * @throws UncheckedIOException if the line cannot be written
+     */
+    private void writeLine(Writer writer, String line) {
+        try {
+            writer.write(config.unicodeSymbols() ? IsabelleSymbols.toUnicode(line) : line);
+            writer.write(config.lineSeparator());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the Unicode symbols of the original lines as symbols of the form {@code \<name>} if {@link FormatterConfig#unicodeSymbols()}
+     * is enabled, so the rules only have to handle one form.
+     *
+     * @param originalLines the original lines
+     * @return the lines with symbols of the form {@code \<name>}
+     */
+    private Iterator<String> readSymbols(Iterator<String> originalLines) {
+        if (!config.unicodeSymbols()) {
+            return originalLines;
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return originalLines.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return IsabelleSymbols.fromUnicode(originalLines.next());
+            }
+        };
+    }
+
+    /**
+     * Reads the Unicode symbols of a single original line, see {@link #readSymbols(Iterator)}.
+     *
+     * @param originalLine the original line
+     * @return the line with symbols of the form {@code \<name>}
+     */
+    private String readSymbols(String originalLine) {
+        return config.unicodeSymbols() ? IsabelleSymbols.fromUnicode(originalLine) : originalLine;
+    }
+
+    /**
+     * Processes a single line of text, applying the enabled formatting rules.
+     *
+     * @param line         the line to be processed
+     * @param lines        the lines that still have to be processed
+     * @param cleanLines   the list of cleaned lines to which the processed line will be added
+     * @param insideQuotes whether the start of the current line is inside quotes
+     * @param statistics   the statistics of the file, updated for every applied rule
+     * @return the processed line
+     */
+    private String processLine(String line, PendingLines lines, List<String> cleanLines, boolean insideQuotes,
+                                      FormatStatistics statistics) {
+        return pipeline.apply(line, new RulePipeline.LineContext(lines, cleanLines, insideQuotes), statistics);
+    }
+
+    /**
+     * Adds empty lines before lemmas or sections if necessary according to {@link FormatterConfig#linesBeforeLemmaOrSection()}.
+     *
+     * @param line       the current line being processed
+     * @param cleanLines the list of cleaned lines
+     */
+    private void addEmptyLinesBeforeLemmaOrSection(String line, List<String> cleanLines) {
+        FormatterConfig.KeywordCategory category = keywords.classify(line);
+        if (category != FormatterConfig.KeywordCategory.TEXT_STARTER && category != FormatterConfig.KeywordCategory.LEMMA_STARTER) {
+            return;
+        }
+
+        int blankLinesToAdd = config.linesBeforeLemmaOrSection();
+        for (int i = cleanLines.size() - 1; i >= 0 && i >= cleanLines.size() - config.linesBeforeLemmaOrSection(); i--) {
+            if (keywords.classify(cleanLines.get(i)) == FormatterConfig.KeywordCategory.COMMENT_STARTER) {
+                return;
+            } else if (cleanLines.get(i).isBlank()) {
+                blankLinesToAdd--;
+            } else {
+                break;
+            }
+        }
+        for (int i = 0; i < blankLinesToAdd; i++) {
+            cleanLines.add("");
+        }
+    }
+
+    /**
+     * Handles comments in the proof, which can span multiple lines. It processes the comment line by line until it finds the closing tag.
+     *
+     * @param firstLine  the first line of the comment as read from the file
+     * @param lines      the lines that still have to be processed
+     * @param cleanLines the list of cleaned lines to which the processed comment will be added
+     * @param summaries  the summaries of the lines of the formatting run
+     */
+    private void handleComment(String firstLine, PendingLines lines, List<String> cleanLines, LineSummary.Cache summaries) {
+        String line = firstLine.trim();
+        String lineStarter = line.substring(0, KeywordClassifier.leadingNameLength(line));
+        line = commentStarterPatterns.get(lineStarter).matcher(line).replaceAll(lineStarter + " ");
+
+        int openNumber = summaries.summarize(line).cartoucheDelta();
+
+        boolean wasQuoted = line.charAt(lineStarter.length() + 1) == '"';
+        if (wasQuoted) {
+            line = line.substring(0, lineStarter.length() + 1) + "\\<open>" + line.substring(lineStarter.length() + 2);
+        }
+        String expectedLineEnder = wasQuoted ? "\"" : "\\<close>";
+        while (!line.endsWith(expectedLineEnder) || openNumber > 0) {
+            cleanLines.add(line);
+            line = lines.next().strip();
+            openNumber += summaries.summarize(line).cartoucheDelta();
+        }
+
+        if (wasQuoted) {
+            line = line.substring(0, line.length() - 1) + "\\<close>";
+        }
+        cleanLines.add(line);
+    }
+
+    /**
+     * Normalizes spaces in a line according to various rules, including handling operators, brackets, and quotation marks.
+     * The line is split into tokens by {@link TheoryLexer} and the spacing between every pair of neighbouring tokens is decided once.
+     *
+     * @param line         the line to be normalized
+     * @param insideQuotes whether the start of the current line is inside quotes
+     * @return the normalized line
+     */
+    static String normalizeSpaces(String line, boolean insideQuotes) {
+        List<TheoryLexer.Token> tokens = TheoryLexer.tokenize(line, insideQuotes);
+        StringBuilder lineBuilder = new StringBuilder(line.length() + 16);
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i > 0 && needsSpaceBetween(tokens.get(i - 1), tokens.get(i))) {
+                lineBuilder.append(' ');
+            }
+            lineBuilder.append(tokens.get(i).text());
+        }
+        return lineBuilder.toString();
+    }
+
+    /**
+     * Decides whether two neighbouring tokens are separated by a space. Quoted terms and brackets are tight on the inside, operators are
+     * surrounded by spaces, commas are tight, and dots, semicolons and colons stick to the token before them. Everything else keeps the
+     * spacing of the original line.
+     *
+     * @param previous the token on the left
+     * @param next     the token on the right
+     * @return true if a single space is placed between the tokens, false otherwise
+     */
+    private static boolean needsSpaceBetween(TheoryLexer.Token previous, TheoryLexer.Token next) {
+        TheoryLexer.Kind left = previous.kind();
+        TheoryLexer.Kind right = next.kind();
+
+        if (left == TheoryLexer.Kind.OPENING_QUOTE || left == TheoryLexer.Kind.OPENING_BRACKET || left == TheoryLexer.Kind.OPENING_SQUARE_BRACKET
+                || left == TheoryLexer.Kind.COMMA || right == TheoryLexer.Kind.CLOSING_QUOTE || right == TheoryLexer.Kind.CLOSING_BRACKET
+                || right == TheoryLexer.Kind.COMMA || right == TheoryLexer.Kind.DOT || right == TheoryLexer.Kind.SEMICOLON
+                || right == TheoryLexer.Kind.COLON || right == TheoryLexer.Kind.INSTANTIATION) {
+            return false;
+        } else if (left == TheoryLexer.Kind.OPENING_CARTOUCHE || right == TheoryLexer.Kind.CLOSING_CARTOUCHE) {
+            return next.spaceBefore();
+        } else if (left == TheoryLexer.Kind.DOT || left == TheoryLexer.Kind.SEMICOLON) {
+            return previous.spaceBefore() || next.spaceBefore();
+        } else if (left == TheoryLexer.Kind.COLON || left == TheoryLexer.Kind.CLOSING_QUOTE || left == TheoryLexer.Kind.CLOSING_CARTOUCHE
+                || left == TheoryLexer.Kind.CLOSING_BRACKET || left == TheoryLexer.Kind.FACT_LITERAL || right == TheoryLexer.Kind.OPENING_QUOTE
+                || right == TheoryLexer.Kind.OPENING_CARTOUCHE || right == TheoryLexer.Kind.OPENING_SQUARE_BRACKET
+                || right == TheoryLexer.Kind.FACT_LITERAL) {
+            return true;
+        } else if (left == TheoryLexer.Kind.OPERATOR || right == TheoryLexer.Kind.OPERATOR) {
+            return next.spaceBefore() || !(previous.text().endsWith("_") || next.text().startsWith("_"));
+        } else {
+            return next.spaceBefore();
+        }
+    }
+
+    /**
+     * Moves line breakers {@link IsabelleFormatter#LINE_STARTERS}, {@link IsabelleFormatter#LINE_ENDERS} and "and" to the previous line or the next line as appropriate.
+     *
+     * @param line       the current line being processed
+     * @param cleanLines the list of cleaned lines
+     * @param lines      the lines that still have to be processed
+     * @return the modified line after moving line breakers
+     */
+    private static String moveLineBreakers(String line, List<String> cleanLines, PendingLines lines) {
+        for (int i = 0; i < LINE_ENDERS.length; i++) {
+            if (LineBreakerPatterns.LEADING_LINE_ENDER_PATTERNS[i].matcher(line).matches()) {
+                String lineEnderWithoutBackslash = LINE_ENDERS[i].replace("\\", "");
+                cleanLines.set(cleanLines.size() - 1, cleanLines.getLast() + " " + lineEnderWithoutBackslash);
+                line = line.substring(lineEnderWithoutBackslash.length()).trim();
+            }
+        }
+
+        for (String lineStarter : LINE_STARTERS) {
+            if (line.endsWith(lineStarter)) {
+                lines.set(0, lineStarter + " " + lines.peek(0));
+                line = line.substring(0, line.length() - lineStarter.length()).trim();
+            }
+        }
+
+        if (line.startsWith("and")) {
+            cleanLines.set(cleanLines.size() - 1, cleanLines.getLast() + " and");
+            return line.substring("and".length()).trim();
+        } else if (line.startsWith("\"") && cleanLines.getLast().endsWith("\"")) {
+            cleanLines.set(cleanLines.size() - 1, cleanLines.getLast() + " and");
+            return line;
+        } else {
+            return line;
+        }
+    }
+
+    /**
+     * Breaks a line into multiple lines based on various conditions, such as {@link IsabelleFormatter#LINE_STARTERS}, {@link IsabelleFormatter#LINE_ENDERS}, {@link IsabelleFormatter#PROOF_HELPERS} and other keywords.
+     * The assumptions of a lemma are split off for every keyword configured as {@link FormatterConfig.KeywordCategory#LEMMA_STARTER}.
+     *
+     * @param line  the current line being processed
+     * @param lines the lines that still have to be processed, in front of which the broken up parts are added
+     * @return the modified line after breaking it up
+     */
+    String breakLine(String line, PendingLines lines) {
+        for (int i = 0; i < LINE_ENDERS.length; i++) {
+            if (BreakLinePatterns.INNER_LINE_ENDER_PATTERNS[i].matcher(line).matches()) {
+                String[] parts = BreakLinePatterns.LINE_ENDER_SPLIT_PATTERNS[i].split(line, 2);
+                if (parts.length == 2) {
+                    lines.pushFront(parts[1].trim());
+                }
+                line = parts[0].trim() + " " + LINE_ENDERS[i].replace("\\", "");
+            }
+        }
+
+        for (int i = 0; i < LINE_STARTERS.length; i++) {
+            String lineStarter = LINE_STARTERS[i];
+            if (BreakLinePatterns.INNER_LINE_STARTER_PATTERNS[i].matcher(line).matches()) {
+                String[] parts = BreakLinePatterns.LINE_STARTER_SPLIT_PATTERNS[i].split(line, 3);
+                if (parts[0].isBlank()) {
+                    if (parts.length == 3) {
+                        lines.pushFront(lineStarter + " " + parts[2].trim());
+                    }
+                    line = lineStarter + " " + parts[1].trim();
+                } else {
+                    if (parts.length == 2) {
+                        lines.pushFront(lineStarter + " " + parts[1].trim());
+                    } else if (parts.length == 3) {
+                        lines.pushFront(lineStarter + " " + parts[1].trim());
+                        lines.insert(1, lineStarter + " " + parts[2].trim());
+                    }
+                    line = parts[0].trim();
+                }
+            }
+        }
+
+        if (line.contains("apply") && (Arrays.stream(PROOF_HELPERS).anyMatch(line::startsWith) || line.indexOf("apply") < Arrays.stream(PROOF_HELPERS).mapToInt(line::indexOf).min().orElse(-1))) {
+            String[] parts = BreakLinePatterns.APPLY_SPLIT_PATTERN.split(line, 2);
+
+            String[] afterApply;
+            StringBuilder proveMethod;
+            String remainder;
+
+            if (parts[1].trim().startsWith("(")) {
+                afterApply = parts[1].split("\\)", -1);
+
+                proveMethod = new StringBuilder(afterApply[0].trim() + ")");
+                int i = 1;
+                while (i < afterApply.length && proveMethod.toString().replace("(", "").length() < proveMethod.toString().replace(")", "").length()) {
+                    proveMethod.append(afterApply[i].trim()).append(")");
+                    i++;
+                }
+                remainder = Arrays.stream(afterApply, i, afterApply.length).collect(Collectors.joining(")"));
+            } else {
+                afterApply = BreakLinePatterns.WHITESPACE_PATTERN.split(parts[1].trim(), 2);
+                proveMethod = new StringBuilder(afterApply[0].trim());
+                remainder = afterApply.length > 1 ? afterApply[1].trim() : "";
+            }
+
+            lines.pushFront("apply " + proveMethod);
+            if (!remainder.isBlank()) {
+                lines.insert(1, remainder.trim());
+            }
+            return parts[0].trim();
+        }
+
+        for (int i = 0; i < PROOF_HELPERS.length; i++) {
+            String proofHelper = PROOF_HELPERS[i];
+            if (line.contains(proofHelper) && !line.startsWith(proofHelper) && !line.contains("proof")) {
+                String[] parts = ProofHelperPatterns.PROOF_HELPER_SPLIT_PATTERNS[i].split(line, 2);
+                lines.pushFront(proofHelper + " " + parts[1].trim());
+                return parts[0].trim();
+            }
+        }
+
+        if (line.contains("by") && !line.startsWith("by")) {
+            String[] parts = BreakLinePatterns.BY_SPLIT_PATTERN.split(line, 2);
+            lines.pushFront("by " + parts[1].trim());
+            return parts[0].trim();
+        } else if (keywords.classify(line) == FormatterConfig.KeywordCategory.LEMMA_STARTER && line.contains("assumes")) {
+            String[] parts = BreakLinePatterns.ASSUMES_SPLIT_PATTERN.split(line, 2);
+            lines.pushFront("assumes " + parts[1].trim());
+            return parts[0].trim();
+        } else if (line.startsWith("assumes") && line.contains("shows")) {
+            String[] parts = BreakLinePatterns.SHOWS_SPLIT_PATTERN.split(line, 2);
+            lines.pushFront("shows " + parts[1].trim());
+            return parts[0].trim();
+        } else if (BreakLinePatterns.INNER_AND_PATTERN.matcher(line).matches()) {
+            String[] parts = BreakLinePatterns.AND_SPLIT_PATTERN.split(line, 2);
+            if (parts.length > 1) {
+                lines.pushFront(parts[1].trim());
+            }
+            return parts[0].trim() + " and";
+        } else if (!line.contains("[of") && !line.contains("proof") && BreakLinePatterns.ADJACENT_QUOTES_LINE_PATTERN.matcher(line).matches()) {
+            String[] parts = BreakLinePatterns.ADJACENT_QUOTES_PATTERN.split(line, 2);
+            lines.pushFront("\"" + parts[1].trim());
+            return parts[0].trim() + "\" and";
+        } else {
+            return line;
+        }
+    }
+
+    /**
+     * Removes multiple occurrences of {@link IsabelleFormatter#PROOF_HELPERS} from a line, ensuring that only one instance remains at the start of the line.
+     *
+     * @param line       the current line being processed
+     * @param cleanLines the list of cleaned lines
+     * @return the modified line after removing multiple proof helpers
+     */
+    private String removeMultipleProofHelpers(String line, List<String> cleanLines) {
+        for (int j = 0; j < PROOF_HELPERS.length; j++) {
+            String proofHelper = PROOF_HELPERS[j];
+            if (line.indexOf(proofHelper) != line.lastIndexOf(proofHelper)) {
+                String[] parts = ProofHelperPatterns.PROOF_HELPER_SPLIT_PATTERNS[j].split(line);
+                StringBuilder newLine = new StringBuilder(parts[0] + proofHelper);
+                for (int i = 1; i < parts.length; i++) {
+                    newLine.append(" ").append(parts[i].trim());
+                }
+
+                line = newLine.toString();
+            }
+
+            if (!cleanLines.isEmpty() && line.startsWith(proofHelper) && cleanLines.getLast().startsWith(proofHelper)
+                    && IsabelleSymbols.width(cleanLines.getLast()) + IsabelleSymbols.width(line) - proofHelper.length() < config.maxLineLength()) {
+                cleanLines.set(cleanLines.size() - 1, cleanLines.getLast() + " " + line.substring(proofHelper.length()).trim());
+                return "";
+            }
+        }
+
+        return line;
+    }
+
+    /**
+     * Removes unnecessary brackets around single terms and around entire quoted strings
+     *
+     * @param line         the current line being processed
+     * @param lines        the lines that still have to be processed
+     * @param insideQuotes whether the start of the current line is inside quotes
+     * @return the modified line after removing unnecessary brackets
+     */
+    private static String removeUnnecessaryBrackets(String line, PendingLines lines, boolean insideQuotes) {
+        line = BracketPatterns.SINGLE_TERM_BRACKETS_PATTERN.matcher(line).replaceAll("$1");
+
+        return removeUnnecessaryBracketsAroundCompleteString(line, lines, insideQuotes);
+    }
+
+    /**
+     * Removes unnecessary brackets around the complete content of strings.
+     *
+     * @param line         the current line being processed
+     * @param lines        the lines that still have to be processed
+     * @param insideQuotes whether the start of the current line is inside quotes
+     * @return the modified line after removing unnecessary brackets
+     */
+    static String removeUnnecessaryBracketsAroundCompleteString(String line, PendingLines lines, boolean insideQuotes) {
+        if (insideQuotes || !line.contains("\"")) {
+            return line;
+        }
+
+        int i = line.indexOf('"') + 1;
+        int nextOffset = 0;
+        int bracketCount = 0;
+        String currentLine = line;
+        boolean mutliLine = false;
+        boolean foundBrackets = false;
+
+        do {
+            while (i > currentLine.length() - 1) {
+                currentLine = lines.peek(nextOffset);
+                nextOffset++;
+                i = 0;
+                mutliLine = true;
+            }
+            char currentChar = currentLine.charAt(i);
+            if (currentChar == '(') {
+                bracketCount++;
+                foundBrackets = true;
+            } else if (currentChar == ')') {
+                bracketCount--;
+            } else if (currentChar == ',' && bracketCount == 1) {
+                return line;
+            }
+            i++;
+        } while (bracketCount > 0);
+
+        if (!foundBrackets) {
+            return line;
+        }
+
+        if ((i >= currentLine.length() && lines.peek(nextOffset).startsWith("\"")) || (i < currentLine.length() && currentLine.charAt(i) == '\"')) {
+            if (mutliLine) {
+                if (i >= currentLine.length() && lines.peek(nextOffset).startsWith("\"")) {
+                    currentLine = currentLine.substring(0, i - 1);
+                } else {
+                    currentLine = currentLine.substring(0, i - 1) + currentLine.substring(i);
+                }
+                lines.set(nextOffset - 1, currentLine);
+            } else {
+                line = line.substring(0, i - 1) + line.substring(i);
+            }
+
+            int firstQuoteIndex = line.indexOf('"');
+            line = line.substring(0, firstQuoteIndex + 1) + line.substring(firstQuoteIndex + 2);
+        }
+
+        return line;
+    }
+
+    /**
+     * Adds "and" to lines that start with "assumes", "shows", or "fixes" and splits them into multiple lines if necessary.
+     *
+     * @param line       the current line being processed
+     * @param lines      the lines that still have to be processed, in front of which the split parts are added
+     * @param cleanLines the list of cleaned lines to which the processed line will be added
+     * @return the modified line after adding "and" where appropriate
+     */
+    private static String addAnds(String line, PendingLines lines, List<String> cleanLines) {
+        if (line.startsWith("assumes") || line.startsWith("shows") || line.startsWith("fixes")) {
+            String[] parts = AssumptionPatterns.ASSUMPTION_SPLIT_PATTERN.split(line);
+
+            if (parts.length == 1) {
+                return line;
+            }
+
+            for (int i = 1; i < parts.length; i++) {
+                String nextLine = "\"" + parts[i].trim() + (i < parts.length - 1 ? "\" and" : "");
+                lines.insert(i - 1, nextLine);
+            }
+            return parts[0] + "\" and";
+        } else if (line.startsWith("\"") && cleanLines.getLast().endsWith("\"")) {
+            cleanLines.set(cleanLines.size() - 1, cleanLines.getLast() + " and");
+            return line;
+        } else {
+            return line;
+        }
+    }
+
+    /**
+     * Breaks long lines that start with {@link IsabelleFormatter#PROOF_HELPERS} into multiple lines if they exceed {@link FormatterConfig#maxLineLength()}.
+     * Lines are measured in rendered width, so an Isabelle symbol counts as a single character.
+     *
+     * @param line  the current line being processed
+     * @param lines the lines that still have to be processed, in front of which the split parts are added
+     * @return the modified line after breaking it up if necessary
+     */
+    private String breakLongLines(String line, PendingLines lines) {
+        for (String proofHelper : PROOF_HELPERS) {
+            if (line.startsWith(proofHelper) && IsabelleSymbols.width(line) > config.maxLineLength()) {
+                String[] parts = line.split(" ");
+                StringBuilder newLine = new StringBuilder(proofHelper);
+                int newLineWidth = proofHelper.length();
+                for (int i = 1; i < parts.length; i++) {
+                    int partWidth = IsabelleSymbols.width(parts[i]);
+                    if (newLineWidth + partWidth > config.maxLineLength()) {
+                        lines.pushFront(proofHelper + " " + Arrays.stream(parts, i, parts.length).collect(Collectors.joining(" ")).trim());
+                        return newLine.toString();
+                    } else if (parts[i].contains("[")) {
+                        int openBrackets = parts[i].chars().map(c -> c == '[' ? 1 : c == ']' ? -1 : 0).sum();
+                        StringBuilder instantiation = new StringBuilder(parts[i]);
+                        while (openBrackets > 0) {
+                            i++;
+                            openBrackets += parts[i].chars().map(c -> c == '[' ? 1 : c == ']' ? -1 : 0).sum();
+                            instantiation.append(" ").append(parts[i]);
+                        }
+                        newLine.append(" ").append(instantiation);
+                        newLineWidth += 1 + IsabelleSymbols.width(instantiation);
+                    } else {
+                        newLine.append(" ").append(parts[i]);
+                        newLineWidth += 1 + partWidth;
+                    }
+                }
+                return newLine.toString();
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Determines whether the current line should be united with the last line in the cleaned lines list.
+     *
+     * @param line       the current line being processed
+     * @param cleanLines the list of cleaned lines
+     * @return true if the current line should be united with the last line, false otherwise
+     */
+    private static boolean shouldUniteWithLastLine(String line, List<String> cleanLines) {
+        if (cleanLines.isEmpty()) {
+            return false;
+        }
+
+        String lastLine = cleanLines.getLast();
+        return line.contains("proof") && lastLine.contains("show ");
+    }
+}
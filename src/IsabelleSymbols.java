@@ -0,0 +1,301 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The table of Isabelle symbols like {@code \<Rightarrow>}, {@code \<lbrakk>} or {@code \<open>}, which interns every known symbol to a
+ * compact id with a constant-time classification and its Unicode form.
+ * <p>
+ * The symbols are stored in an open addressing table built once. A lookup hashes the name of a symbol in place, so finding the id of a
+ * symbol in a line neither allocates nor scans more than the symbol. Symbols that are not in the table get the id {@link #UNKNOWN}.
+ * <p>
+ * Lines are measured in rendered width: every symbol counts as a single character, control symbols like {@code \<^sub>} do not count,
+ * since they only modify the character after them.
+ */
+final class IsabelleSymbols {
+
+    /**
+     * The role of a symbol for the formatter.
+     */
+    enum Kind {
+        /**
+         * Any symbol whose name consists of letters only and that has no other role, for example {@code \<Rightarrow>} or
+         * {@code \<alpha>}, spaced like an operator.
+         */
+        OPERATOR,
+        /**
+         * {@code \<lbrakk>}.
+         */
+        OPENING_BRACKET,
+        /**
+         * {@code \<rbrakk>}.
+         */
+        CLOSING_BRACKET,
+        /**
+         * {@code \<open>}.
+         */
+        OPENING_CARTOUCHE,
+        /**
+         * {@code \<close>}.
+         */
+        CLOSING_CARTOUCHE,
+        /**
+         * A control symbol, for example {@code \<^sub>}.
+         */
+        CONTROL,
+        /**
+         * Any other symbol, for example one whose name contains digits.
+         */
+        OTHER
+    }
+
+    /**
+     * The id of all symbols that are not in the table.
+     */
+    static final int UNKNOWN = 0;
+
+    /**
+     * The known symbols and their Unicode code points, as listed in Isabelle's {@code etc/symbols}. The id of a symbol is its index
+     * plus one.
+     */
+    private static final String[] SYMBOLS = {
+            "open 2039", "close 203a", "lbrakk 27e6", "rbrakk 27e7", "langle 27e8", "rangle 27e9", "lparr 2987", "rparr 2988",
+            "lbrace 2983", "rbrace 2984", "lceil 2308", "rceil 2309", "lfloor 230a", "rfloor 230b",
+            "alpha 3b1", "beta 3b2", "gamma 3b3", "delta 3b4", "epsilon 3b5", "zeta 3b6", "eta 3b7", "theta 3b8", "iota 3b9", "kappa 3ba",
+            "lambda 3bb", "mu 3bc", "nu 3bd", "xi 3be", "pi 3c0", "rho 3c1", "sigma 3c3", "tau 3c4", "upsilon 3c5", "phi 3c6", "chi 3c7",
+            "psi 3c8", "omega 3c9", "Gamma 393", "Delta 394", "Theta 398", "Lambda 39b", "Xi 39e", "Pi 3a0", "Sigma 3a3", "Upsilon 3a5",
+            "Phi 3a6", "Psi 3a8", "Omega 3a9",
+            "leftarrow 2190", "rightarrow 2192", "Leftarrow 21d0", "Rightarrow 21d2", "leftrightarrow 2194", "Leftrightarrow 21d4",
+            "longleftarrow 27f5", "longrightarrow 27f6", "longleftrightarrow 27f7", "Longleftarrow 27f8", "Longrightarrow 27f9",
+            "Longleftrightarrow 27fa", "mapsto 21a6", "longmapsto 27fc", "hookrightarrow 21aa", "leadsto 219d", "rightharpoonup 21c0",
+            "rightleftharpoons 21cc",
+            "forall 2200", "exists 2203", "nexists 2204", "not ac", "and 2227", "or 2228", "And 22c0", "Or 22c1", "equiv 2261",
+            "noteq 2260", "le 2264", "ge 2265", "ll 226a", "gg 226b", "prec 227a", "succ 227b", "preceq 227c", "succeq 227d",
+            "approx 2248", "sim 223c", "simeq 2243", "cong 2245", "propto 221d",
+            "in 2208", "notin 2209", "subset 2282", "supset 2283", "subseteq 2286", "supseteq 2287", "inter 2229", "union 222a",
+            "Inter 22c2", "Union 22c3", "emptyset 2205", "setminus 2216", "uplus 228e", "sqsubset 228f", "sqsubseteq 2291",
+            "sqinter 2293", "squnion 2294",
+            "times d7", "div f7", "minus 2212", "circ 2218", "cdot 22c5", "bullet 2219", "star 22c6", "oplus 2295", "otimes 2297",
+            "Sum 2211", "Prod 220f", "integral 222b", "sqrt 221a", "infinity 221e", "partial 2202", "nabla 2207",
+            "top 22a4", "bottom 22a5", "turnstile 22a2", "Turnstile 22a8", "parallel 2225", "bar a6", "Colon 2237", "dots 2026",
+            "cdots 22ef", "box 25a1", "diamond 25c7", "degree b0", "section a7", "comment 2015",
+            "nat 2115", "int 2124", "rat 211a", "real 211d", "complex 2102",
+            "^sub 21e9", "^sup 21e7", "^bold 2759", "^bsub 21d8", "^esub 21d9", "^bsup 21d7", "^esup 21d6"};
+
+    private static final String[] NAMES = new String[SYMBOLS.length + 1];
+    private static final int[] CODE_POINTS = new int[SYMBOLS.length + 1];
+    private static final Kind[] KINDS = new Kind[SYMBOLS.length + 1];
+    private static final int[] TABLE = new int[Integer.highestOneBit(SYMBOLS.length * 4)];
+    private static final int MASK = TABLE.length - 1;
+    private static final Map<Integer, Integer> IDS_BY_CODE_POINT = new HashMap<>();
+
+    static {
+        NAMES[UNKNOWN] = "";
+        KINDS[UNKNOWN] = Kind.OTHER;
+        for (int i = 0; i < SYMBOLS.length; i++) {
+            int id = i + 1;
+            String[] entry = SYMBOLS[i].split(" ");
+            NAMES[id] = entry[0];
+            CODE_POINTS[id] = Integer.parseInt(entry[1], 16);
+            KINDS[id] = classifyName(entry[0]);
+
+            int slot = spread(hash(entry[0], 0, entry[0].length())) & MASK;
+            while (TABLE[slot] != UNKNOWN) {
+                slot = (slot + 1) & MASK;
+            }
+            TABLE[slot] = id;
+            if (IDS_BY_CODE_POINT.put(CODE_POINTS[id], id) != null) {
+                throw new IllegalStateException("Duplicate code point for \\<" + entry[0] + ">");
+            }
+        }
+    }
+
+    private IsabelleSymbols() {
+    }
+
+    /**
+     * Finds the end of the symbol starting at the given index. A symbol is {@code \<}, an optional {@code ^} for control symbols, a name
+     * of letters, digits, underscores and primes, and {@code >}.
+     *
+     * @param line  the line
+     * @param start the index of the backslash
+     * @return the index directly after the symbol, or -1 if no symbol starts at the index
+     */
+    static int symbolEnd(CharSequence line, int start) {
+        int length = line.length();
+        if (start + 3 >= length || line.charAt(start) != '\\' || line.charAt(start + 1) != '<') {
+            return -1;
+        }
+        int i = start + 2;
+        if (line.charAt(i) == '^') {
+            i++;
+        }
+        int nameStart = i;
+        while (i < length && isSymbolNameCharacter(line.charAt(i))) {
+            i++;
+        }
+        return i > nameStart && i < length && line.charAt(i) == '>' ? i + 1 : -1;
+    }
+
+    /**
+     * Returns the id of the symbol at the given position.
+     *
+     * @param line  the line
+     * @param start the index of the backslash of the symbol
+     * @param end   the index directly after the symbol, as returned by {@link #symbolEnd(CharSequence, int)}
+     * @return the id of the symbol, or {@link #UNKNOWN} if it is not in the table
+     */
+    static int lookup(CharSequence line, int start, int end) {
+        int nameStart = start + 2;
+        int nameEnd = end - 1;
+        int nameLength = nameEnd - nameStart;
+        for (int slot = spread(hash(line, nameStart, nameEnd)) & MASK; TABLE[slot] != UNKNOWN; slot = (slot + 1) & MASK) {
+            String name = NAMES[TABLE[slot]];
+            if (name.length() == nameLength && regionMatches(line, nameStart, name)) {
+                return TABLE[slot];
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns the kind of a symbol.
+     *
+     * @param id the id of the symbol
+     * @return the kind, {@link Kind#OTHER} for {@link #UNKNOWN}
+     */
+    static Kind kind(int id) {
+        return KINDS[id];
+    }
+
+    /**
+     * Classifies the symbol at the given position, including symbols that are not in the table.
+     *
+     * @param line  the line
+     * @param start the index of the backslash of the symbol
+     * @param end   the index directly after the symbol
+     * @return the kind of the symbol
+     */
+    static Kind classify(CharSequence line, int start, int end) {
+        int id = lookup(line, start, end);
+        return id != UNKNOWN ? KINDS[id] : classifyName(line.subSequence(start + 2, end - 1));
+    }
+
+    /**
+     * Measures the rendered width of a line, counting every symbol as one character and control symbols as none.
+     *
+     * @param line the line
+     * @return the width of the line
+     */
+    static int width(CharSequence line) {
+        int width = 0;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) == '\\') {
+                int end = symbolEnd(line, i);
+                if (end > 0) {
+                    width += line.charAt(i + 2) == '^' ? 0 : 1;
+                    i = end - 1;
+                    continue;
+                }
+            }
+            width++;
+        }
+        return width;
+    }
+
+    /**
+     * Replaces every known symbol by its Unicode character.
+     *
+     * @param line the line with symbols in the form {@code \<name>}
+     * @return the line with Unicode symbols, the same instance if it contains no known symbol
+     */
+    static String toUnicode(String line) {
+        int next = line.indexOf("\\<");
+        if (next < 0) {
+            return line;
+        }
+        StringBuilder result = new StringBuilder(line.length());
+        int copied = 0;
+        for (int i = next; i >= 0; i = line.indexOf("\\<", i + 1)) {
+            int end = symbolEnd(line, i);
+            int id = end > 0 ? lookup(line, i, end) : UNKNOWN;
+            if (id != UNKNOWN) {
+                result.append(line, copied, i).appendCodePoint(CODE_POINTS[id]);
+                copied = end;
+                i = end - 1;
+            }
+        }
+        return copied == 0 ? line : result.append(line, copied, line.length()).toString();
+    }
+
+    /**
+     * Replaces every Unicode character of a known symbol by the symbol in the form {@code \<name>}.
+     *
+     * @param line the line with Unicode symbols
+     * @return the line with symbols in the form {@code \<name>}, the same instance if it contains no Unicode symbol
+     */
+    static String fromUnicode(String line) {
+        StringBuilder result = null;
+        int copied = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char character = line.charAt(i);
+            if (character < 0xa0) {
+                continue;
+            }
+            int codePoint = line.codePointAt(i);
+            Integer id = IDS_BY_CODE_POINT.get(codePoint);
+            if (id != null) {
+                if (result == null) {
+                    result = new StringBuilder(line.length() + 16);
+                }
+                result.append(line, copied, i).append("\\<").append(NAMES[id]).append('>');
+                copied = i + Character.charCount(codePoint);
+            }
+            i += Character.charCount(codePoint) - 1;
+        }
+        return result == null ? line : result.append(line, copied, line.length()).toString();
+    }
+
+    /**
+     * Classifies a symbol by its name, the way the formatter always treated symbols: the brackets and cartouches by name, names of
+     * letters only as operators and everything else as other symbols.
+     *
+     * @param name the name between {@code \<} and {@code >}
+     * @return the kind of the symbol
+     */
+    private static Kind classifyName(CharSequence name) {
+        String text = name.toString();
+        return switch (text) {
+            case "open" -> Kind.OPENING_CARTOUCHE;
+            case "close" -> Kind.CLOSING_CARTOUCHE;
+            case "lbrakk" -> Kind.OPENING_BRACKET;
+            case "rbrakk" -> Kind.CLOSING_BRACKET;
+            default -> text.startsWith("^") ? Kind.CONTROL : text.chars().allMatch(Character::isLetter) ? Kind.OPERATOR : Kind.OTHER;
+        };
+    }
+
+    private static boolean isSymbolNameCharacter(char character) {
+        return Character.isLetterOrDigit(character) || character == '_' || character == '\'';
+    }
+
+    private static boolean regionMatches(CharSequence line, int start, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (line.charAt(start + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
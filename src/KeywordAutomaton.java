@@ -0,0 +1,140 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * An Aho-Corasick automaton finding all occurrences of a fixed set of keywords in a single pass over a text, however many keywords there
+ * are and however much they overlap.
+ * <p>
+ * The automaton is built once with a full transition table over ASCII, so every character costs one table lookup. Characters outside of
+ * ASCII cannot be part of a keyword and reset the automaton to its start. It is immutable and can be shared between threads.
+ */
+final class KeywordAutomaton {
+
+    /**
+     * Receives the occurrences found by {@link #scan(CharSequence, int, int, Listener)}.
+     */
+    @FunctionalInterface
+    interface Listener {
+
+        /**
+         * Called for every occurrence of a keyword, in the order of their ends.
+         *
+         * @param keyword the index of the keyword in the keywords the automaton was built with
+         * @param end     the index directly after the occurrence
+         */
+        void found(int keyword, int end);
+    }
+
+    private static final int ALPHABET = 128;
+    private static final int[] NO_KEYWORDS = new int[0];
+
+    private final String[] keywords;
+    private final int[][] transitions;
+    private final int[][] matches;
+
+    /**
+     * Builds the automaton.
+     *
+     * @param keywords the keywords to find, consisting of ASCII characters only
+     * @throws IllegalArgumentException if a keyword is empty or contains a character outside of ASCII
+     */
+    KeywordAutomaton(String... keywords) {
+        this.keywords = keywords.clone();
+        List<int[]> goTo = new ArrayList<>();
+        List<int[]> outputs = new ArrayList<>();
+        goTo.add(newState());
+        outputs.add(NO_KEYWORDS);
+
+        for (int keyword = 0; keyword < keywords.length; keyword++) {
+            String text = keywords[keyword];
+            if (text.isEmpty() || !text.chars().allMatch(character -> character < ALPHABET)) {
+                throw new IllegalArgumentException("Keywords must be non-empty ASCII: \"" + text + "\"");
+            }
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (goTo.get(state)[text.charAt(i)] < 0) {
+                    goTo.get(state)[text.charAt(i)] = goTo.size();
+                    goTo.add(newState());
+                    outputs.add(NO_KEYWORDS);
+                }
+                state = goTo.get(state)[text.charAt(i)];
+            }
+            outputs.set(state, append(outputs.get(state), keyword));
+        }
+
+        int[] failure = new int[goTo.size()];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int character = 0; character < ALPHABET; character++) {
+            int next = goTo.getFirst()[character];
+            if (next < 0) {
+                goTo.getFirst()[character] = 0;
+            } else {
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            int[] row = goTo.get(state);
+            for (int character = 0; character < ALPHABET; character++) {
+                int fallback = goTo.get(failure[state])[character];
+                if (row[character] < 0) {
+                    row[character] = fallback;
+                } else {
+                    failure[row[character]] = fallback;
+                    int[] inherited = outputs.get(fallback);
+                    for (int keyword : inherited) {
+                        outputs.set(row[character], append(outputs.get(row[character]), keyword));
+                    }
+                    queue.add(row[character]);
+                }
+            }
+        }
+
+        this.transitions = goTo.toArray(int[][]::new);
+        this.matches = outputs.toArray(int[][]::new);
+    }
+
+    /**
+     * Returns a keyword the automaton was built with.
+     *
+     * @param keyword the index of the keyword
+     * @return the keyword
+     */
+    String keyword(int keyword) {
+        return keywords[keyword];
+    }
+
+    /**
+     * Finds all occurrences of the keywords in a range of a text.
+     *
+     * @param text     the text
+     * @param start    the index of the first character to scan
+     * @param end      the index after the last character to scan
+     * @param listener receives the occurrences
+     */
+    void scan(CharSequence text, int start, int end, Listener listener) {
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            char character = text.charAt(i);
+            state = character < ALPHABET ? transitions[state][character] : 0;
+            for (int keyword : matches[state]) {
+                listener.found(keyword, i + 1);
+            }
+        }
+    }
+
+    private static int[] newState() {
+        int[] row = new int[ALPHABET];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int[] append(int[] keywords, int keyword) {
+        int[] appended = Arrays.copyOf(keywords, keywords.length + 1);
+        appended[keywords.length] = keyword;
+        return appended;
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Classifies a line by the keyword it starts with. The keyword is the whole name at the start of the line, so a line starting with
+ * {@code endpoint} is not mistaken for one starting with {@code end}.
+ * <p>
+ * The keywords are stored in an open addressing table that is built once per configuration. A lookup hashes the leading name in place
+ * and compares it with the keywords in its probe sequence, so classifying a line neither allocates nor scans more than the leading name.
+ * A classifier is immutable and can be shared by any number of threads.
+ */
+final class KeywordClassifier {
+
+    private final String[] keywords;
+    private final FormatterConfig.KeywordCategory[] categories;
+    private final int mask;
+
+    /**
+     * Creates a classifier for the built-in keywords, changed by the keywords of a configuration.
+     *
+     * @param config the configuration providing the additional keywords
+     */
+    KeywordClassifier(FormatterConfig config) {
+        Map<String, FormatterConfig.KeywordCategory> allKeywords = new HashMap<>();
+        addAll(allKeywords, IsabelleFormatter.LEMMA_STARTERS, FormatterConfig.KeywordCategory.LEMMA_STARTER);
+        addAll(allKeywords, IsabelleFormatter.TEXT_STARTERS, FormatterConfig.KeywordCategory.TEXT_STARTER);
+        addAll(allKeywords, new String[]{IsabelleFormatter.COMMENT_STARTER}, FormatterConfig.KeywordCategory.COMMENT_STARTER);
+        addAll(allKeywords, IsabelleFormatter.OTHER_STARTERS, FormatterConfig.KeywordCategory.OTHER_STARTER);
+        addAll(allKeywords, IsabelleFormatter.STEP_STARTERS, FormatterConfig.KeywordCategory.STEP_STARTER);
+        addAll(allKeywords, IsabelleFormatter.PROOF_HELPERS, FormatterConfig.KeywordCategory.PROOF_HELPER);
+        allKeywords.putAll(config.keywords());
+        allKeywords.values().removeIf(category -> category == FormatterConfig.KeywordCategory.NONE);
+
+        int size = 16;
+        while (size < allKeywords.size() * 4) {
+            size <<= 1;
+        }
+        keywords = new String[size];
+        categories = new FormatterConfig.KeywordCategory[size];
+        mask = size - 1;
+        allKeywords.forEach((keyword, category) -> {
+            int slot = spread(keyword.hashCode()) & mask;
+            while (keywords[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keywords[slot] = keyword;
+            categories[slot] = category;
+        });
+    }
+
+    private static void addAll(Map<String, FormatterConfig.KeywordCategory> allKeywords, String[] keywords, FormatterConfig.KeywordCategory category) {
+        for (String keyword : keywords) {
+            allKeywords.put(keyword, category);
+        }
+    }
+
+    /**
+     * Classifies a line by the name it starts with.
+     *
+     * @param line the line to classify, without indentation
+     * @return the category of the leading name, or {@link FormatterConfig.KeywordCategory#NONE} if it is no keyword or the line does not
+     * start with a name
+     */
+    FormatterConfig.KeywordCategory classify(String line) {
+        int length = 0;
+        int hash = 0;
+        while (length < line.length() && LineSummary.isNameCharacter(line.charAt(length))) {
+            hash = 31 * hash + line.charAt(length);
+            length++;
+        }
+        if (length == 0) {
+            return FormatterConfig.KeywordCategory.NONE;
+        }
+
+        for (int slot = spread(hash) & mask; keywords[slot] != null; slot = (slot + 1) & mask) {
+            if (keywords[slot].length() == length && line.startsWith(keywords[slot])) {
+                return categories[slot];
+            }
+        }
+        return FormatterConfig.KeywordCategory.NONE;
+    }
+
+    /**
+     * Returns the keywords of a category.
+     *
+     * @param category the category
+     * @return the keywords classified as the category
+     */
+    Stream<String> keywords(FormatterConfig.KeywordCategory category) {
+        return IntStream.range(0, keywords.length).filter(slot -> categories[slot] == category).mapToObj(slot -> keywords[slot]);
+    }
+
+    /**
+     * Returns the length of the name a line starts with.
+     *
+     * @param line the line, without indentation
+     * @return the number of leading name characters
+     */
+    static int leadingNameLength(String line) {
+        int length = 0;
+        while (length < line.length() && LineSummary.isNameCharacter(line.charAt(length))) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Mixes the high bits of a hash code into the low bits used to pick a slot.
+     *
+     * @param hash the hash code of a name, computed like {@link String#hashCode()}
+     * @return the spread hash code
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
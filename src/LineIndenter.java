@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Indents cleaned lines one at a time and passes every line on as soon as its indentation is final.
+ * <p>
+ * Lines are final right away, except for lines of a quoted term spanning multiple lines. Their indentation is squashed once the term is
+ * closed, so they are held back until then. The number of lines kept in memory is therefore bounded by the longest quoted term instead
+ * of the length of the file.
+ */
+final class LineIndenter {
+
+    private final int indentionSize;
+    private final KeywordClassifier keywords;
+    private final LineSummary.Cache summaries;
+    private final Consumer<String> output;
+    private final List<String> quotedTexts = new ArrayList<>();
+    private int[] quotedLevels = new int[16];
+    private int currentIndentionLevel = 0;
+    private boolean insideQuotes = false;
+    private String previousLine = "";
+
+    /**
+     * Creates an indenter.
+     *
+     * @param indentionSize the number of spaces per indentation level
+     * @param keywords      the classifier of the keywords lines start with
+     * @param summaries     the summaries of the lines of the formatting run, shared with the passes that produced the lines
+     * @param output        receives the indented lines in order
+     */
+    LineIndenter(int indentionSize, KeywordClassifier keywords, LineSummary.Cache summaries, Consumer<String> output) {
+        this.indentionSize = indentionSize;
+        this.keywords = keywords;
+        this.summaries = summaries;
+        this.output = output;
+    }
+
+    /**
+     * Indents the next line according to the specified rules, adjusting the indentation level based on various conditions.
+     * The number of spaces for indentation is defined by {@link FormatterConfig#indentionSize()}.
+     *
+     * @param cleanLine the next cleaned line
+     */
+    void accept(String cleanLine) {
+        LineSummary summary = summaries.summarize(cleanLine);
+        int[] indentations = handleIndentionLevel(cleanLine, keywords.classify(cleanLine), summary, previousLine, currentIndentionLevel, insideQuotes);
+        String text = cleanLine.trim();
+        currentIndentionLevel = indentations[1];
+        previousLine = text;
+
+        if (summary.oddQuotes()) {
+            insideQuotes = !insideQuotes;
+            if (!insideQuotes) {
+                holdBack(indentations[0], text);
+                squashUnnecessaryIndention();
+                return;
+            }
+        }
+
+        if (insideQuotes) {
+            holdBack(indentations[0], text);
+        } else {
+            output.accept(indent(indentations[0], text));
+        }
+    }
+
+    /**
+     * Checks whether the lines accepted so far end inside a quoted term, so the following lines depend on them.
+     *
+     * @return true if a quoted term is still open, false otherwise
+     */
+    boolean isInsideQuotes() {
+        return insideQuotes;
+    }
+
+    /**
+     * Passes on all lines that are still held back because their quoted term was never closed.
+     */
+    void finish() {
+        for (int i = 0; i < quotedTexts.size(); i++) {
+            output.accept(indent(quotedLevels[i], quotedTexts.get(i)));
+        }
+        quotedTexts.clear();
+    }
+
+    /**
+     * Holds back a line of a quoted term until the term is closed.
+     *
+     * @param indentionLevel the indentation level of the line
+     * @param text           the line without indentation
+     */
+    private void holdBack(int indentionLevel, String text) {
+        if (quotedTexts.size() == quotedLevels.length) {
+            quotedLevels = Arrays.copyOf(quotedLevels, quotedLevels.length * 2);
+        }
+        quotedLevels[quotedTexts.size()] = indentionLevel;
+        quotedTexts.add(text);
+    }
+
+    /**
+     * Indents a line.
+     *
+     * @param indentionLevel the indentation level of the line
+     * @param text           the line without indentation
+     * @return the indented line
+     */
+    private String indent(int indentionLevel, String text) {
+        return " ".repeat(indentionLevel * indentionSize) + text;
+    }
+
+    /**
+     * Handles the indentation level for a given line based on its content and the previous line.
+     *
+     * @param line                  the current line being processed
+     * @param category              the category of the keyword the current line starts with
+     * @param summary               the summary of the current line
+     * @param previousLine          the previous line in the cleaned lines list
+     * @param currentIndentionLevel the current indentation level
+     * @param insideQuotes          whether the start of the current line is inside quotes
+     * @return an array containing the new indentation level and the adjusted indentation level for the next lines
+     */
+    private static int[] handleIndentionLevel(String line, FormatterConfig.KeywordCategory category, LineSummary summary, String previousLine, int currentIndentionLevel, boolean insideQuotes) {
+        int[] indentationLevels;
+
+        if (category == FormatterConfig.KeywordCategory.LEMMA_STARTER || category == FormatterConfig.KeywordCategory.TEXT_STARTER
+                || category == FormatterConfig.KeywordCategory.OTHER_STARTER) {
+            indentationLevels = new int[]{0, 0};
+        } else if (category == FormatterConfig.KeywordCategory.COMMENT_STARTER) {
+            indentationLevels = new int[]{currentIndentionLevel, currentIndentionLevel};
+        } else if (line.isBlank()) {
+            indentationLevels = new int[]{0, currentIndentionLevel};
+        } else if (line.startsWith("assumes") || line.startsWith("fixes") || line.startsWith("shows")) {
+            if (line.endsWith("and")) {
+                indentationLevels = new int[]{1, 2};
+            } else {
+                indentationLevels = new int[]{1, 1};
+            }
+        } else if (line.contains("proof")) {
+            if (line.contains("show") || line.contains("have") || insideQuotes) {
+                indentationLevels = new int[]{currentIndentionLevel, currentIndentionLevel + 1};
+            } else {
+                indentationLevels = new int[]{0, 1};
+            }
+        } else if (line.startsWith("imports")) {
+            indentationLevels = new int[]{1, 0};
+        } else if (line.equals("qed")) {
+            indentationLevels = new int[]{currentIndentionLevel - 1, currentIndentionLevel - 1};
+        } else if (line.startsWith("by") || line.startsWith("apply") || category == FormatterConfig.KeywordCategory.PROOF_HELPER || line.equals("sorry")) {
+            indentationLevels = new int[]{currentIndentionLevel + 1, currentIndentionLevel};
+        } else if (line.equals("next")) {
+            indentationLevels = new int[]{currentIndentionLevel - 1, currentIndentionLevel};
+        } else if (previousLine.contains("obtain")) {
+            indentationLevels = new int[]{currentIndentionLevel + 1, currentIndentionLevel};
+        } else if (!insideQuotes && category == FormatterConfig.KeywordCategory.STEP_STARTER) {
+            indentationLevels = new int[]{currentIndentionLevel, currentIndentionLevel};
+        } else if (insideQuotes) {
+            indentationLevels = new int[]{currentIndentionLevel + 1, currentIndentionLevel};
+        } else if (line.equals("\\<close>")) {
+            indentationLevels = new int[]{currentIndentionLevel - 1, currentIndentionLevel};
+        } else {
+            indentationLevels = new int[]{currentIndentionLevel, currentIndentionLevel};
+        }
+
+        int bracketDelta = summary.bracketDelta();
+        if (summary.oddQuotes()) {
+            bracketDelta += insideQuotes ? -1 : 1;
+        }
+
+        indentationLevels[1] += bracketDelta;
+
+        return indentationLevels;
+    }
+
+    /**
+     * Squashes unnecessary indentation for the held back lines of a single quoted string, ensuring that indentations are not unnecessarily
+     * deepened, and passes them on. The lowest level is kept, and every deeper level is replaced by its rank among the distinct levels
+     * of the string plus one. The ranks are counted over the range of levels in one pass, so the time is linear in the number of lines
+     * and levels.
+     */
+    private void squashUnnecessaryIndention() {
+        int numberOfLines = quotedTexts.size();
+        int baseIndention = Integer.MAX_VALUE;
+        int deepestIndention = Integer.MIN_VALUE;
+        for (int i = 0; i < numberOfLines; i++) {
+            baseIndention = Math.min(baseIndention, quotedLevels[i]);
+            deepestIndention = Math.max(deepestIndention, quotedLevels[i]);
+        }
+
+        int[] ranks = new int[deepestIndention - baseIndention + 1];
+        for (int i = 0; i < numberOfLines; i++) {
+            ranks[quotedLevels[i] - baseIndention] = 1;
+        }
+        int distinctLevels = 0;
+        for (int level = 0; level < ranks.length; level++) {
+            if (ranks[level] != 0) {
+                ranks[level] = distinctLevels++;
+            }
+        }
+
+        for (int i = 0; i < numberOfLines; i++) {
+            int indentationIndex = ranks[quotedLevels[i] - baseIndention];
+            int squashedIndentionLevel = (indentationIndex == 0 ? 0 : (indentationIndex + 1)) + baseIndention;
+            output.accept(indent(squashedIndentionLevel, quotedTexts.get(i)));
+        }
+        quotedTexts.clear();
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * The structural facts about a line that several passes need, computed in a single scan. Summaries are cached by {@link Cache} as long
+ * as a line is not changed, so a line handed from one pass to the next is only scanned once.
+ *
+ * @param length                the length of the line
+ * @param width                 the rendered width of the line, in which every Isabelle symbol counts as one character, see
+ *                              {@link IsabelleSymbols#width(CharSequence)}
+ * @param oddQuotes             whether the line contains an odd number of quotation marks and therefore toggles between quoted and
+ *                              unquoted text
+ * @param roundBracketDelta     the number of {@code (} minus the number of {@code )}
+ * @param squareBracketDelta    the number of {@code [} minus the number of {@code ]}
+ * @param semanticBracketDelta  the number of {@code \<lbrakk>} minus the number of {@code \<rbrakk>}
+ * @param cartoucheDelta        the number of {@code \<open>} minus the number of {@code \<close>}
+ */
+record LineSummary(int length, int width, boolean oddQuotes, int roundBracketDelta, int squareBracketDelta, int semanticBracketDelta,
+                   int cartoucheDelta) {
+
+    /**
+     * Summarizes a line.
+     *
+     * @param line the line to summarize
+     * @return the summary of the line
+     */
+    static LineSummary of(String line) {
+        int length = line.length();
+        boolean oddQuotes = false;
+        int roundBracketDelta = 0;
+        int squareBracketDelta = 0;
+        int semanticBracketDelta = 0;
+        int cartoucheDelta = 0;
+        int width = length;
+
+        for (int i = 0; i < length; i++) {
+            switch (line.charAt(i)) {
+                case '"' -> oddQuotes = !oddQuotes;
+                case '(' -> roundBracketDelta++;
+                case ')' -> roundBracketDelta--;
+                case '[' -> squareBracketDelta++;
+                case ']' -> squareBracketDelta--;
+                case '\\' -> {
+                    int end = IsabelleSymbols.symbolEnd(line, i);
+                    if (end > 0) {
+                        IsabelleSymbols.Kind kind = IsabelleSymbols.kind(IsabelleSymbols.lookup(line, i, end));
+                        switch (kind) {
+                            case OPENING_CARTOUCHE -> cartoucheDelta++;
+                            case CLOSING_CARTOUCHE -> cartoucheDelta--;
+                            case OPENING_BRACKET -> semanticBracketDelta++;
+                            case CLOSING_BRACKET -> semanticBracketDelta--;
+                            default -> {
+                                // Not structural
+                            }
+                        }
+                        width -= kind == IsabelleSymbols.Kind.CONTROL ? end - i : end - i - 1;
+                        i = end - 1;
+                    }
+                }
+                default -> {
+                    // Not structural
+                }
+            }
+        }
+
+        return new LineSummary(length, width, oddQuotes, roundBracketDelta, squareBracketDelta, semanticBracketDelta, cartoucheDelta);
+    }
+
+    /**
+     * Returns the net change of the bracket depth caused by the line, counting round and square brackets, semantic brackets and
+     * cartouches.
+     *
+     * @return the number of opening minus the number of closing brackets of all kinds
+     */
+    int bracketDelta() {
+        return roundBracketDelta + squareBracketDelta + semanticBracketDelta + cartoucheDelta;
+    }
+
+    /**
+     * Checks whether a character may be part of a name.
+     *
+     * @param character the character to check
+     * @return true for letters, digits, underscores, primes and dots of qualified names
+     */
+    static boolean isNameCharacter(char character) {
+        return Character.isLetterOrDigit(character) || character == '_' || character == '\'' || character == '.';
+    }
+
+    /**
+     * Caches the summaries of the lines most recently handled in a formatting run. Lines are identified by the string instance, so a pass
+     * that changes a line, and thereby creates a new string, invalidates its summary, while lines that are passed on unchanged keep it.
+     * <p>
+     * The cache only has a few slots, since every line is only looked at by neighbouring passes. It is not thread-safe.
+     */
+    static final class Cache {
+
+        private static final int SLOTS = 32;
+
+        private final String[] lines = new String[SLOTS];
+        private final LineSummary[] summaries = new LineSummary[SLOTS];
+
+        /**
+         * Returns the summary of a line, computing it only if the line is not cached.
+         *
+         * @param line the line to summarize
+         * @return the summary of the line
+         */
+        LineSummary summarize(String line) {
+            int slot = System.identityHashCode(line) & (SLOTS - 1);
+            if (lines[slot] != line) {
+                lines[slot] = line;
+                summaries[slot] = of(line);
+            }
+            return summaries[slot];
+        }
+    }
+}
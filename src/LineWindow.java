@@ -0,0 +1,82 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The cleaned lines of a file, of which only the most recent ones are kept. The passes only ever look at or change the last few cleaned
+ * lines, so older lines are passed on as soon as they drop out of the window.
+ * <p>
+ * Indices refer to the position in the whole file, so the window can be used like the full list of cleaned lines. Accessing a line that
+ * was already passed on throws an {@link IndexOutOfBoundsException}.
+ */
+final class LineWindow extends AbstractList<String> {
+
+    private final int capacity;
+    private final Consumer<String> output;
+    private final List<String> retainedLines = new ArrayList<>();
+    private int passedOnLines = 0;
+
+    /**
+     * Creates an empty window.
+     *
+     * @param capacity the number of most recent lines that can still be read and changed, at least 1
+     * @param output   receives the lines that drop out of the window in order
+     */
+    LineWindow(int capacity, Consumer<String> output) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.output = output;
+    }
+
+    @Override
+    public String get(int index) {
+        return retainedLines.get(toRetainedIndex(index));
+    }
+
+    @Override
+    public String set(int index, String line) {
+        return retainedLines.set(toRetainedIndex(index), line);
+    }
+
+    @Override
+    public boolean add(String line) {
+        retainedLines.add(line);
+        if (retainedLines.size() > capacity) {
+            output.accept(retainedLines.removeFirst());
+            passedOnLines++;
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return passedOnLines + retainedLines.size();
+    }
+
+    /**
+     * Passes on all lines that are still retained, leaving the window empty.
+     */
+    void flush() {
+        retainedLines.forEach(output);
+        passedOnLines += retainedLines.size();
+        retainedLines.clear();
+    }
+
+    /**
+     * Converts an index in the whole file into an index of the retained lines.
+     *
+     * @param index the index in the whole file
+     * @return the index in the retained lines
+     * @throws IndexOutOfBoundsException if the line is not retained anymore
+     */
+    private int toRetainedIndex(int index) {
+        if (index < passedOnLines || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not within the retained lines " + passedOnLines + " to " + (size() - 1));
+        }
+        return index - passedOnLines;
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.Serial;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The lines of a theory that still have to be processed. Passes that split a line push the fragments back in front of the read cursor,
+ * so they are processed next.
+ * <p>
+ * Lines of the file are only read from the source when a pass reads or looks ahead to them, so only the lookahead and the pushed
+ * fragments are kept in memory. These are stored in a circular array starting at the read cursor, so reading a line, pushing a fragment to
+ * the front and reading ahead from the source are O(1), and inserting at a small offset behind the front only moves that many lines.
+ */
+final class PendingLines {
+
+    /**
+     * Thrown by the pending lines of a region when a pass reads beyond the end of the region, where the whole theory has more lines and
+     * the pass could behave differently.
+     */
+    static final class RegionOverrunException extends RuntimeException {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        RegionOverrunException() {
+            super("A pass read beyond the end of the region", null, false, false);
+        }
+    }
+
+    private final Iterator<String> source;
+    private final boolean region;
+    private String[] pending = new String[16];
+    private int head;
+    private int size;
+    private long linesRead;
+    private long linesInserted;
+
+    /**
+     * Creates the pending lines reading from the given lines of a file.
+     *
+     * @param source the lines in the order they appear in the file
+     */
+    PendingLines(Iterator<String> source) {
+        this(source, false);
+    }
+
+    /**
+     * Creates the pending lines reading from the given lines of a file or of a region of it.
+     *
+     * @param source the lines in the order they appear in the file
+     * @param region whether the source is a region of a theory, so reading beyond its end throws a {@link RegionOverrunException}
+     *               instead of failing like at the end of a theory
+     */
+    PendingLines(Iterator<String> source, boolean region) {
+        this.source = source;
+        this.region = region;
+    }
+
+    /**
+     * Checks whether there are lines left to process.
+     *
+     * @return true if there is at least one more line, false otherwise
+     */
+    boolean hasNext() {
+        return size > 0 || source.hasNext();
+    }
+
+    /**
+     * Removes and returns the next line to process.
+     *
+     * @return the next line
+     * @throws NoSuchElementException  if no lines are left
+     * @throws RegionOverrunException if no lines are left in a region
+     */
+    String next() {
+        if (size > 0) {
+            String line = pending[head];
+            pending[head] = null;
+            head = (head + 1) & (pending.length - 1);
+            size--;
+            return line;
+        } else if (source.hasNext()) {
+            linesRead++;
+            return source.next();
+        } else if (region) {
+            throw new RegionOverrunException();
+        } else {
+            throw new NoSuchElementException("No lines left to process");
+        }
+    }
+
+    /**
+     * Returns a line ahead of the read cursor without removing it.
+     *
+     * @param offset the offset from the read cursor, 0 being the next line
+     * @return the line at the given offset
+     * @throws IndexOutOfBoundsException if there is no line at the given offset
+     * @throws RegionOverrunException    if the offset is beyond the end of a region
+     */
+    String peek(int offset) {
+        int index = toIndex(offset);
+        return pending[index];
+    }
+
+    /**
+     * Replaces a line ahead of the read cursor.
+     *
+     * @param offset the offset from the read cursor, 0 being the next line
+     * @param line   the new content of the line
+     * @throws IndexOutOfBoundsException if there is no line at the given offset
+     * @throws RegionOverrunException    if the offset is beyond the end of a region
+     */
+    void set(int offset, String line) {
+        int index = toIndex(offset);
+        pending[index] = line;
+    }
+
+    /**
+     * Adds a line directly in front of the read cursor, so it is the next line to be processed.
+     *
+     * @param line the line to add
+     */
+    void pushFront(String line) {
+        linesInserted++;
+        ensureCapacity();
+        head = (head - 1) & (pending.length - 1);
+        pending[head] = line;
+        size++;
+    }
+
+    /**
+     * Inserts a line ahead of the read cursor, moving the lines from the given offset on one position back.
+     *
+     * @param offset the offset from the read cursor the line will have after inserting it
+     * @param line   the line to insert
+     * @throws IndexOutOfBoundsException if the offset is larger than the number of pending lines
+     * @throws RegionOverrunException    if the offset is beyond the end of a region
+     */
+    void insert(int offset, String line) {
+        readAhead(offset);
+        if (region && offset > size) {
+            throw new RegionOverrunException();
+        } else if (offset < 0 || offset > size) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " out of bounds for " + size + " pending lines");
+        }
+        linesInserted++;
+        ensureCapacity();
+        int mask = pending.length - 1;
+        head = (head - 1) & mask;
+        for (int i = 0; i < offset; i++) {
+            pending[(head + i) & mask] = pending[(head + i + 1) & mask];
+        }
+        pending[(head + offset) & mask] = line;
+        size++;
+    }
+
+    /**
+     * Returns how many lines were read from the source so far.
+     *
+     * @return the number of lines read
+     */
+    long linesRead() {
+        return linesRead;
+    }
+
+    /**
+     * Returns how many lines were added by passes so far, each of them split off from another line.
+     *
+     * @return the number of pushed and inserted lines
+     */
+    long linesInserted() {
+        return linesInserted;
+    }
+
+    /**
+     * Reads lines from the source until the given number of lines is pending or the source is exhausted.
+     *
+     * @param numberOfLines the number of lines that should be pending
+     */
+    private void readAhead(int numberOfLines) {
+        while (size < numberOfLines && source.hasNext()) {
+            linesRead++;
+            ensureCapacity();
+            pending[(head + size) & (pending.length - 1)] = source.next();
+            size++;
+        }
+    }
+
+    /**
+     * Doubles the circular array if it is full, moving the read cursor to its start.
+     */
+    private void ensureCapacity() {
+        if (size < pending.length) {
+            return;
+        }
+        String[] grown = new String[pending.length * 2];
+        int firstPart = pending.length - head;
+        System.arraycopy(pending, head, grown, 0, firstPart);
+        System.arraycopy(pending, 0, grown, firstPart, head);
+        pending = grown;
+        head = 0;
+    }
+
+    /**
+     * Converts an offset from the read cursor into an index of the circular array.
+     *
+     * @param offset the offset from the read cursor
+     * @return the index in the circular array
+     */
+    private int toIndex(int offset) {
+        readAhead(offset + 1);
+        if (region && offset >= size) {
+            throw new RegionOverrunException();
+        } else if (offset < 0 || offset >= size) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " out of bounds for " + size + " pending lines");
+        }
+        return (head + offset) & (pending.length - 1);
+    }
+}
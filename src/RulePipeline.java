@@ -0,0 +1,332 @@
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The rules applied to every line, in the order they are applied, reduced to the rules enabled in a {@link FormatterConfig}. A pipeline
+ * is built once per formatter and shared by all of its formatting runs.
+ * <p>
+ * Every rule declares which state besides the line it reads and which state it may rewrite. Rules that neither read nor rewrite any such
+ * state only rewrite the characters of the line. They are implemented as {@link CharacterRule}s, and consecutive enabled rules of this
+ * kind are composed into a single stage that scans the line once and shows every character to each of them, so adding another character
+ * rule does not add another pass over the line.
+ */
+final class RulePipeline {
+
+    /**
+     * The state of a formatting run besides the current line that rules read or rewrite.
+     */
+    enum State {
+        /**
+         * Whether the start of the line is inside quotes.
+         */
+        QUOTES,
+        /**
+         * The lines that still have to be processed.
+         */
+        PENDING_LINES,
+        /**
+         * The lines that were already cleaned up.
+         */
+        CLEAN_LINES
+    }
+
+    /**
+     * The state a rule is applied in.
+     *
+     * @param lines        the lines that still have to be processed
+     * @param cleanLines   the lines that were already cleaned up
+     * @param insideQuotes whether the start of the line is inside quotes
+     */
+    record LineContext(PendingLines lines, List<String> cleanLines, boolean insideQuotes) {
+    }
+
+    /**
+     * The implementation of a rule that is applied on its own.
+     */
+    @FunctionalInterface
+    interface LineRule {
+
+        /**
+         * Applies the rule to a line.
+         *
+         * @param line    the line
+         * @param context the state of the formatting run
+         * @return the rewritten line
+         */
+        String apply(String line, LineContext context);
+    }
+
+    /**
+     * The implementation of a rule that only rewrites the characters of a line, composed with the other character rules into a single
+     * scan over the line. The scan shows every character to the rules in their order, and a rule may remove the characters starting at
+     * the shown one, which are then no longer shown to it and the rules after it. Once all characters are shown, the rules complete the
+     * line in their order and may append to it or remove its end.
+     * <p>
+     * This has the same result as applying the rules one after another as long as a rule only looks at the characters it is shown, their
+     * neighbours in the original line and the edits of the rules before it, and does not match the text appended by an earlier rule.
+     */
+    @FunctionalInterface
+    interface CharacterRule {
+
+        /**
+         * Starts scanning a line.
+         *
+         * @param line the line
+         * @return the scan of the rule over the line, holding the state of the rule for this line
+         */
+        CharacterScan start(String line);
+    }
+
+    /**
+     * The state of a {@link CharacterRule} while it scans a single line.
+     */
+    interface CharacterScan {
+
+        /**
+         * Shows the rule the next character of the line.
+         *
+         * @param index the index of the character in the original line
+         * @return the number of characters the rule removes starting at the index, or 0 to keep the character
+         */
+        int visit(int index);
+
+        /**
+         * Completes the line after all characters were shown.
+         *
+         * @param edit the edit of the line, including the edits of the rules before this one
+         * @return the number of places the rule rewrote in the line
+         */
+        int finish(LineEdit edit);
+    }
+
+    /**
+     * The removals and the appended text of the character rules applied to a line, producing the rewritten line.
+     */
+    static final class LineEdit {
+
+        private final String line;
+        private StringBuilder result;
+        private int copiedUpTo;
+        private boolean appended;
+
+        private LineEdit(String line) {
+            this.line = line;
+        }
+
+        /**
+         * Removes characters of the original line. Removals have to be made in the order of their starts, and may overlap.
+         *
+         * @param from the index of the first removed character
+         * @param to   the index after the last removed character
+         */
+        void remove(int from, int to) {
+            if (from >= copiedUpTo) {
+                result = result == null ? new StringBuilder(line.length()) : result;
+                result.append(line, copiedUpTo, from);
+            }
+            copiedUpTo = Math.max(copiedUpTo, to);
+        }
+
+        /**
+         * Appends text to the end of the rewritten line.
+         *
+         * @param text the text
+         */
+        void append(String text) {
+            result = result == null ? new StringBuilder(line.length() + text.length()) : result;
+            result.append(line, copiedUpTo, line.length());
+            copiedUpTo = line.length();
+            result.append(text);
+            appended = true;
+        }
+
+        /**
+         * Checks whether a rule appended text, so the original line no longer ends the rewritten one.
+         *
+         * @return true if text was appended, false otherwise
+         */
+        boolean isAppended() {
+            return appended;
+        }
+
+        /**
+         * Returns the rewritten line.
+         *
+         * @return the line with all removals and appended text, the original line if there are none
+         */
+        String result() {
+            if (result == null) {
+                return line;
+            }
+            return result.append(line, copiedUpTo, line.length()).toString();
+        }
+    }
+
+    /**
+     * A rule of the pipeline.
+     *
+     * @param pass           the pass implementing the rule, which names the rule and measures it
+     * @param reads          the state besides the line the rule reads
+     * @param rewrites       the state besides the line the rule may rewrite
+     * @param implementation the implementation of a rule applied on its own, or null for a character rule
+     * @param characterRule  the implementation of a character rule, or null for a rule applied on its own
+     */
+    record RuleDefinition(FormatStatistics.Pass pass, Set<State> reads, Set<State> rewrites, LineRule implementation,
+                          CharacterRule characterRule) {
+
+        /**
+         * Declares a rule that is applied on its own.
+         *
+         * @param pass           the pass implementing the rule
+         * @param reads          the state besides the line the rule reads
+         * @param rewrites       the state besides the line the rule may rewrite
+         * @param implementation the implementation
+         */
+        RuleDefinition(FormatStatistics.Pass pass, Set<State> reads, Set<State> rewrites, LineRule implementation) {
+            this(pass, reads, rewrites, implementation, null);
+        }
+
+        /**
+         * Declares a character rule, which neither reads nor rewrites any state besides the line.
+         *
+         * @param pass          the pass implementing the rule
+         * @param characterRule the implementation
+         */
+        RuleDefinition(FormatStatistics.Pass pass, CharacterRule characterRule) {
+            this(pass, EnumSet.noneOf(State.class), EnumSet.noneOf(State.class), null, characterRule);
+        }
+
+        /**
+         * Checks whether the rule only rewrites the characters of the line.
+         *
+         * @return true if the rule is implemented as a character rule, false otherwise
+         */
+        boolean isCharacterRule() {
+            return characterRule != null;
+        }
+    }
+
+    /**
+     * A step of the pipeline, either a single rule or a number of fused character rules.
+     */
+    private interface Stage {
+
+        /**
+         * Applies the step to a line.
+         *
+         * @param line       the line
+         * @param context    the state of the formatting run
+         * @param statistics the statistics of the file
+         * @return the rewritten line
+         */
+        String apply(String line, LineContext context, FormatStatistics statistics);
+    }
+
+    private final List<Stage> stages;
+
+    /**
+     * Builds the pipeline of the enabled rules.
+     *
+     * @param definitions  all rules in the order they are applied
+     * @param enabledRules the rules that are applied
+     * @throws IllegalArgumentException if a rule has no implementation, or a character rule declares state it reads or rewrites
+     */
+    RulePipeline(List<RuleDefinition> definitions, Set<FormatterConfig.Rule> enabledRules) {
+        List<Stage> builtStages = new ArrayList<>();
+        List<RuleDefinition> composed = new ArrayList<>();
+        for (RuleDefinition definition : definitions) {
+            if (!enabledRules.contains(definition.pass().rule())) {
+                continue;
+            }
+            if (definition.isCharacterRule()) {
+                if (!definition.reads().isEmpty() || !definition.rewrites().isEmpty()) {
+                    throw new IllegalArgumentException("Character rule " + definition.pass().displayName() + " must not use other state");
+                }
+                composed.add(definition);
+                continue;
+            } else if (definition.implementation() == null) {
+                throw new IllegalArgumentException("No implementation of " + definition.pass().displayName());
+            }
+            addComposedStage(builtStages, composed);
+            builtStages.add((line, context, statistics) -> statistics.apply(definition.pass(), line,
+                    rewritten -> definition.implementation().apply(rewritten, context)));
+        }
+        addComposedStage(builtStages, composed);
+        this.stages = List.copyOf(builtStages);
+    }
+
+    /**
+     * Adds a stage applying the collected character rules in a single scan and starts collecting anew.
+     *
+     * @param stages   the stages built so far
+     * @param composed the collected character rules, cleared afterward
+     */
+    private static void addComposedStage(List<Stage> stages, List<RuleDefinition> composed) {
+        if (composed.isEmpty()) {
+            return;
+        }
+        List<FormatStatistics.Pass> passes = composed.stream().map(RuleDefinition::pass).toList();
+        CharacterRule[] rules = composed.stream().map(RuleDefinition::characterRule).toArray(CharacterRule[]::new);
+        stages.add((line, context, statistics) -> statistics.applyFused(passes, line,
+                scanned -> applyCharacterRules(scanned, rules, passes, statistics)));
+        composed.clear();
+    }
+
+    /**
+     * Applies all enabled rules to a line.
+     *
+     * @param line       the line
+     * @param context    the state of the formatting run
+     * @param statistics the statistics of the file, updated for every applied rule
+     * @return the rewritten line
+     */
+    String apply(String line, LineContext context, FormatStatistics statistics) {
+        for (Stage stage : stages) {
+            line = stage.apply(line, context, statistics);
+        }
+        return line;
+    }
+
+    /**
+     * Applies character rules in a single scan over the line, with the same result as applying them one after another.
+     *
+     * @param line       the line
+     * @param rules      the character rules in the order they are applied
+     * @param passes     the passes implementing the rules, in the same order
+     * @param statistics the statistics counting the rewrites of every rule
+     * @return the rewritten line
+     */
+    static String applyCharacterRules(String line, CharacterRule[] rules, List<FormatStatistics.Pass> passes, FormatStatistics statistics) {
+        CharacterScan[] scans = new CharacterScan[rules.length];
+        for (int rule = 0; rule < rules.length; rule++) {
+            scans[rule] = rules[rule].start(line);
+        }
+        int[] removedUpTo = new int[rules.length];
+        LineEdit edit = new LineEdit(line);
+
+        for (int i = 0; i < line.length(); i++) {
+            for (int rule = 0; rule < scans.length; rule++) {
+                if (i < removedUpTo[rule]) {
+                    continue;
+                }
+                int removed = scans[rule].visit(i);
+                if (removed > 0) {
+                    edit.remove(i, i + removed);
+                    for (int later = rule; later < scans.length; later++) {
+                        removedUpTo[later] = Math.max(removedUpTo[later], i + removed);
+                    }
+                }
+            }
+        }
+
+        for (int rule = 0; rule < scans.length; rule++) {
+            int rewrites = scans[rule].finish(edit);
+            if (rewrites > 0) {
+                statistics.countFusedRewrite(passes.get(rule), rewrites);
+            }
+        }
+        return edit.result();
+    }
+}
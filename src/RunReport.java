@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects the {@link FormatStatistics} of all files formatted in a run and writes them as a JSON report, together with the wall time
+ * of the run and the totals over all files.
+ * <p>
+ * Files may be added concurrently by the workers of a {@link BatchRunner}.
+ */
+final class RunReport {
+
+    private final long startNanos = System.nanoTime();
+    private final List<FormatStatistics> files = new ArrayList<>();
+
+    /**
+     * Adds the statistics of a formatted file.
+     *
+     * @param statistics the finished statistics of the file
+     */
+    synchronized void add(FormatStatistics statistics) {
+        files.add(statistics);
+    }
+
+    /**
+     * Writes the report, replacing an existing report atomically.
+     *
+     * @param reportPath the path of the report file
+     * @throws IOException if the report cannot be written
+     */
+    void write(Path reportPath) throws IOException {
+        long wallTimeNanos = System.nanoTime() - startNanos;
+        List<FormatStatistics> sortedFiles;
+        synchronized (this) {
+            sortedFiles = files.stream().sorted(Comparator.comparing(FormatStatistics::path)).toList();
+        }
+
+        FormatStatistics totals = new FormatStatistics("total");
+        sortedFiles.forEach(totals::add);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"wallTimeNanos\": ").append(wallTimeNanos).append(",\n");
+        json.append("  \"numberOfFiles\": ").append(sortedFiles.size()).append(",\n");
+        json.append("  \"totals\": ");
+        totals.appendJson(json, "  ");
+        json.append(",\n");
+        json.append("  \"files\": [");
+        for (int i = 0; i < sortedFiles.size(); i++) {
+            json.append(i == 0 ? "\n    " : ",\n    ");
+            sortedFiles.get(i).appendJson(json, "    ");
+        }
+        json.append(sortedFiles.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+
+        Path temporaryFile = AtomicFiles.createTemporarySibling(reportPath);
+        try {
+            Files.writeString(temporaryFile, json, StandardCharsets.UTF_8);
+            AtomicFiles.moveIntoPlace(temporaryFile, reportPath);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     *
+     * @param value the string to quote
+     * @return the quoted and escaped string
+     */
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            switch (character) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (character < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) character));
+                    } else {
+                        quoted.append(character);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the sessions declared in Isabelle {@code ROOT} files, to format only the theories of selected sessions instead of every theory
+ * below a directory.
+ * <p>
+ * A root directory contributes the sessions of its {@code ROOT} file and of the directories listed in its {@code ROOTS} file, which are
+ * read recursively. Only the parts of the session syntax needed to locate theories are understood: the session name, its directory
+ * given with {@code in}, and the theory names of its {@code theories} sections. Theories qualified with the name of another session
+ * belong to that session and are left out.
+ */
+final class SessionRoots {
+
+    private static final Set<String> SECTION_KEYWORDS = Set.of("chapter", "chapter_definition", "session", "theories", "document_theories",
+            "document_files", "export_files", "export_classpath", "directories", "options", "sessions", "description");
+
+    private final Map<String, List<Path>> theoriesBySession = new LinkedHashMap<>();
+    private final Set<Path> visitedDirectories = new HashSet<>();
+
+    private SessionRoots() {
+    }
+
+    /**
+     * Reads the sessions declared below the given roots.
+     *
+     * @param roots the directories containing {@code ROOT} or {@code ROOTS} files
+     * @return the sessions
+     * @throws IOException if a {@code ROOT} or {@code ROOTS} file cannot be read
+     */
+    static SessionRoots read(List<Path> roots) throws IOException {
+        SessionRoots sessions = new SessionRoots();
+        for (Path root : roots) {
+            sessions.readDirectory(root);
+        }
+        return sessions;
+    }
+
+    /**
+     * Returns the theories of the selected sessions.
+     *
+     * @param sessionNames the names of the selected sessions
+     * @return the theory files of the sessions in the order they are declared, including files that do not exist
+     * @throws IllegalArgumentException if a session is not declared in any {@code ROOT} file
+     */
+    List<Path> theories(Set<String> sessionNames) {
+        List<Path> theories = new ArrayList<>();
+        for (String sessionName : sessionNames) {
+            List<Path> sessionTheories = theoriesBySession.get(sessionName);
+            if (sessionTheories == null) {
+                throw new IllegalArgumentException("Unknown session: " + sessionName + ", declared sessions: " + theoriesBySession.keySet());
+            }
+            theories.addAll(sessionTheories);
+        }
+        return theories;
+    }
+
+    /**
+     * Reads the {@code ROOT} and {@code ROOTS} files of a directory.
+     *
+     * @param directory the directory
+     * @throws IOException if a file cannot be read
+     */
+    private void readDirectory(Path directory) throws IOException {
+        if (!visitedDirectories.add(directory.toAbsolutePath().normalize())) {
+            return;
+        }
+        Path root = directory.resolve("ROOT");
+        if (Files.isRegularFile(root)) {
+            readRoot(directory, Files.readString(root));
+        }
+        Path roots = directory.resolve("ROOTS");
+        if (Files.isRegularFile(roots)) {
+            for (String line : Files.readAllLines(roots)) {
+                String entry = line.strip();
+                if (!entry.isEmpty() && !entry.startsWith("#")) {
+                    readDirectory(directory.resolve(entry));
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the theories of all sessions declared in a {@code ROOT} file.
+     *
+     * @param directory the directory of the file
+     * @param content   the content of the file
+     */
+    private void readRoot(Path directory, String content) {
+        List<String> tokens = tokenize(content);
+        String session = null;
+        Path sessionDirectory = directory;
+        boolean inTheories = false;
+        int parentheses = 0;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (token.equals("(") || token.equals("[")) {
+                parentheses++;
+            } else if (token.equals(")") || token.equals("]")) {
+                parentheses = Math.max(0, parentheses - 1);
+            } else if (parentheses > 0) {
+                continue;
+            } else if (token.equals("session") && i + 1 < tokens.size()) {
+                session = tokens.get(++i);
+                sessionDirectory = directory;
+                inTheories = false;
+                theoriesBySession.putIfAbsent(session, new ArrayList<>());
+            } else if (token.equals("in") && session != null && i + 1 < tokens.size() && !inTheories) {
+                sessionDirectory = directory.resolve(tokens.get(++i));
+            } else if (SECTION_KEYWORDS.contains(token)) {
+                inTheories = token.equals("theories");
+            } else if (inTheories && session != null) {
+                addTheory(session, sessionDirectory, token);
+            }
+        }
+    }
+
+    /**
+     * Adds a theory named in a {@code theories} section to its session.
+     *
+     * @param session          the name of the session
+     * @param sessionDirectory the directory of the session
+     * @param theoryName       the theory name as written in the {@code ROOT} file
+     */
+    private void addTheory(String session, Path sessionDirectory, String theoryName) {
+        String name = theoryName.endsWith(".thy") ? theoryName.substring(0, theoryName.length() - 4) : theoryName;
+        int qualifier = name.lastIndexOf('.');
+        if (qualifier >= 0 && !name.contains("/")) {
+            if (!name.substring(0, qualifier).equals(session)) {
+                return;
+            }
+            name = name.substring(qualifier + 1);
+        }
+        theoriesBySession.get(session).add(sessionDirectory.resolve(name + ".thy"));
+    }
+
+    /**
+     * Splits a {@code ROOT} file into tokens, dropping comments and the quotes or cartouches around strings.
+     *
+     * @param content the content of the file
+     * @return the tokens
+     */
+    private static List<String> tokenize(String content) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < content.length()) {
+            char character = content.charAt(i);
+            if (Character.isWhitespace(character)) {
+                i++;
+            } else if (content.startsWith("(*", i)) {
+                int depth = 0;
+                do {
+                    if (content.startsWith("(*", i)) {
+                        depth++;
+                        i += 2;
+                    } else if (content.startsWith("*)", i)) {
+                        depth--;
+                        i += 2;
+                    } else {
+                        i++;
+                    }
+                } while (depth > 0 && i < content.length());
+            } else if (character == '"') {
+                int end = content.indexOf('"', i + 1);
+                end = end < 0 ? content.length() : end;
+                tokens.add(content.substring(i + 1, end));
+                i = end + 1;
+            } else if (content.startsWith("\\<open>", i)) {
+                int end = content.indexOf("\\<close>", i);
+                end = end < 0 ? content.length() : end;
+                tokens.add(content.substring(i + "\\<open>".length(), end).strip());
+                i = end + "\\<close>".length();
+            } else if ("()[]=+,".indexOf(character) >= 0) {
+                tokens.add(String.valueOf(character));
+                i++;
+            } else {
+                int start = i;
+                while (i < content.length() && !Character.isWhitespace(content.charAt(i)) && "()[]=+,\"".indexOf(content.charAt(i)) < 0) {
+                    i++;
+                }
+                tokens.add(content.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the top-level blocks of a theory, used to reformat only the blocks touched by an edit and to split large theories into chunks
+ * that are formatted in parallel.
+ * <p>
+ * A block starts with a line beginning with a lemma, text or other starter as classified by {@link KeywordClassifier} and extends up to
+ * the next such line. Only starters in the first column count, since the formatter never indents them, while lines continuing a
+ * statement, a quoted term or a proof are always indented.
+ */
+final class TheoryBlocks {
+
+    private TheoryBlocks() {
+    }
+
+    /**
+     * Finds the first line of the block containing the given line. A starter inside a quoted term or a cartouche, for example a comment
+     * line beginning with "end", does not start a block.
+     *
+     * @param keywords the classifier of the keywords lines start with
+     * @param lines    the lines of the theory
+     * @param line     the index of a line of the block
+     * @return the index of the line starting the block, or 0 if no block starts before the line
+     */
+    static int blockStart(KeywordClassifier keywords, List<String> lines, int line) {
+        for (int candidate = previousStarter(keywords, lines, line); candidate > 0; candidate = previousStarter(keywords, lines, candidate - 1)) {
+            if (startsOutsideQuotesAndCartouches(keywords, lines, candidate)) {
+                return candidate;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Finds the end of the block containing the given line, in a single pass from the start of the block that tracks the quotes and
+     * cartouches opened since.
+     *
+     * @param keywords the classifier of the keywords lines start with
+     * @param lines    the lines of the theory
+     * @param start    the index of the line starting the block
+     * @param line     the index of a line of the block
+     * @return the index of the line starting the next block, or the number of lines if the block is the last one
+     */
+    static int blockEnd(KeywordClassifier keywords, List<String> lines, int start, int line) {
+        boolean insideQuotes = false;
+        int openCartouches = 0;
+        for (int i = start; i < lines.size(); i++) {
+            if (i > line && !insideQuotes && openCartouches == 0 && isBlockStart(keywords, lines.get(i))) {
+                return i;
+            }
+            LineSummary summary = LineSummary.of(lines.get(i));
+            insideQuotes ^= summary.oddQuotes();
+            openCartouches += summary.cartoucheDelta();
+        }
+        return lines.size();
+    }
+
+    /**
+     * Splits a theory into chunks of whole blocks that can be formatted independently, in a single pass over the lines. A chunk ends at
+     * the first block start after at least the given number of lines at which all quotes and cartouches opened since the start of the
+     * theory are closed.
+     *
+     * @param keywords     the classifier of the keywords lines start with
+     * @param lines        the lines of the theory
+     * @param minimumLines the minimum number of lines of a chunk, except for the last one
+     * @return the indices of the lines starting a chunk, beginning with 0
+     */
+    static List<Integer> chunkStarts(KeywordClassifier keywords, List<String> lines, int minimumLines) {
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        boolean insideQuotes = false;
+        int openCartouches = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (i - starts.getLast() >= minimumLines && !insideQuotes && openCartouches == 0 && isBlockStart(keywords, line)) {
+                starts.add(i);
+            }
+            LineSummary summary = LineSummary.of(line);
+            insideQuotes ^= summary.oddQuotes();
+            openCartouches += summary.cartoucheDelta();
+        }
+        return starts;
+    }
+
+    /**
+     * Finds the closest line at or before the given line that begins with a block starter.
+     *
+     * @param keywords the classifier of the keywords lines start with
+     * @param lines    the lines of the theory
+     * @param line     the index of the line to start searching at
+     * @return the index of the line, or 0 if there is none
+     */
+    private static int previousStarter(KeywordClassifier keywords, List<String> lines, int line) {
+        for (int i = line; i > 0; i--) {
+            if (isBlockStart(keywords, lines.get(i))) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks whether a line beginning with a block starter is outside of quoted terms and cartouches. The lines before it are scanned
+     * backwards up to the previous block starter after which all quotes and cartouches are closed again. A cartouche opened in between
+     * without being closed shows that the line is part of a comment.
+     *
+     * @param keywords  the classifier of the keywords lines start with
+     * @param lines     the lines of the theory
+     * @param candidate the index of the line beginning with a block starter
+     * @return true if the line starts a block, false otherwise
+     */
+    private static boolean startsOutsideQuotesAndCartouches(KeywordClassifier keywords, List<String> lines, int candidate) {
+        int quotes = 0;
+        int openCartouches = 0;
+        for (int i = candidate - 1; i >= 0; i--) {
+            String line = lines.get(i);
+            LineSummary summary = LineSummary.of(line);
+            quotes += summary.oddQuotes() ? 1 : 0;
+            openCartouches += summary.cartoucheDelta();
+            if (openCartouches > 0) {
+                return false;
+            } else if (openCartouches == 0 && quotes % 2 == 0 && isBlockStart(keywords, line)) {
+                return true;
+            }
+        }
+        return openCartouches == 0 && quotes % 2 == 0;
+    }
+
+    /**
+     * Checks whether a line starts a top-level block.
+     *
+     * @param keywords the classifier of the keywords lines start with
+     * @param line     the line to check
+     * @return true if the line begins with a lemma, text or other starter, false otherwise
+     */
+    static boolean isBlockStart(KeywordClassifier keywords, String line) {
+        FormatterConfig.KeywordCategory category = keywords.classify(line);
+        return category == FormatterConfig.KeywordCategory.LEMMA_STARTER || category == FormatterConfig.KeywordCategory.TEXT_STARTER
+                || category == FormatterConfig.KeywordCategory.OTHER_STARTER;
+    }
+}
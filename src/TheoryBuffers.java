@@ -0,0 +1,304 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads theories and encodes their formatted versions through buffers that are reused from file to file, so a batch run does not
+ * allocate new buffers, decoders and encoders for every file.
+ * <p>
+ * A theory is read and decoded in windows of a fixed size, and its lines are cut directly out of the decoded window, without the
+ * intermediate copies of a {@link java.io.BufferedReader}. The formatted theory is encoded window by window into a byte buffer of a fixed
+ * size, which is written to the target stream whenever it is full. Memory use therefore does not grow with the size of a theory, except
+ * for a single line longer than a window, whose buffer is dropped again when the next theory is read.
+ * <p>
+ * Instances are not thread-safe. Every worker thread uses its own instance from {@link #forCurrentThread()}.
+ */
+final class TheoryBuffers {
+
+    private static final int WINDOW = 64 * 1024;
+    private static final ThreadLocal<TheoryBuffers> BUFFERS = ThreadLocal.withInitial(TheoryBuffers::new);
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final ByteBuffer inputBytes = ByteBuffer.allocate(WINDOW);
+    private final CharBuffer inputChars = CharBuffer.allocate(WINDOW);
+    private final CharBuffer outputChars = CharBuffer.allocate(WINDOW);
+    private final ByteBuffer outputBytes = ByteBuffer.allocate((int) Math.ceil(WINDOW * (double) encoder.maxBytesPerChar()));
+    private final OutputEncoder outputWriter = new OutputEncoder();
+    private StringBuilder longLine = new StringBuilder();
+
+    private TheoryBuffers() {
+    }
+
+    /**
+     * Returns the buffers of the current thread.
+     *
+     * @return the buffers, created on the first call of the thread
+     */
+    static TheoryBuffers forCurrentThread() {
+        return BUFFERS.get();
+    }
+
+    /**
+     * Opens a theory for reading its lines, replacing the previously opened theory.
+     *
+     * @param path the path to the theory, encoded in UTF-8
+     * @return the lines of the theory, split at the same line terminators as {@link java.io.BufferedReader#readLine()}. A failure to read
+     * or decode the theory is thrown as {@link UncheckedIOException} by the iterator. The lines have to be closed once read.
+     * @throws IOException if the theory cannot be opened
+     */
+    LineReader readLines(Path path) throws IOException {
+        if (longLine.capacity() > WINDOW) {
+            longLine = new StringBuilder();
+        }
+        return new LineReader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Counts the lines of a theory, in the same way as {@link #readLines(Path)} cuts them, but stops counting at a limit. Only the line
+     * terminators are looked at, which are single bytes in UTF-8, so the theory is not decoded.
+     *
+     * @param path  the path to the theory
+     * @param limit the number of lines after which counting stops
+     * @return the number of lines, or the limit if the theory has at least as many lines
+     * @throws IOException if the theory cannot be read
+     */
+    int countLines(Path path, int limit) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            int lines = 0;
+            boolean lineOpen = false;
+            boolean afterCarriageReturn = false;
+            inputBytes.clear();
+            while (lines < limit && channel.read(inputBytes) >= 0) {
+                inputBytes.flip();
+                while (inputBytes.hasRemaining() && lines < limit) {
+                    byte character = inputBytes.get();
+                    if (character == '\n' && afterCarriageReturn) {
+                        afterCarriageReturn = false;
+                    } else if (character == '\n' || character == '\r') {
+                        lines++;
+                        lineOpen = false;
+                        afterCarriageReturn = character == '\r';
+                    } else {
+                        lineOpen = true;
+                        afterCarriageReturn = false;
+                    }
+                }
+                inputBytes.clear();
+            }
+            return lineOpen && lines < limit ? lines + 1 : lines;
+        }
+    }
+
+    /**
+     * Returns a writer that encodes the formatted theory in UTF-8 into the given stream. Closing the writer encodes and writes what is
+     * left, but does not close the stream.
+     *
+     * @param target the stream receiving the encoded theory
+     * @return the writer
+     */
+    Writer outputWriter(OutputStream target) {
+        outputWriter.open(target);
+        return outputWriter;
+    }
+
+    /**
+     * The lines of a theory, decoded window by window from an open file.
+     */
+    final class LineReader implements Iterator<String>, Closeable {
+
+        private final FileChannel channel;
+        private boolean endOfInput;
+        private boolean decoded;
+        private boolean skipLineFeed;
+
+        /**
+         * Creates the lines of an open file, resetting the reused buffers.
+         *
+         * @param channel the file
+         */
+        private LineReader(FileChannel channel) {
+            this.channel = channel;
+            decoder.reset();
+            inputBytes.clear();
+            inputChars.clear().flip();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (skipLineFeed && (inputChars.hasRemaining() || fill())) {
+                skipLineFeed = false;
+                if (inputChars.get(inputChars.position()) == '\n') {
+                    inputChars.position(inputChars.position() + 1);
+                }
+            }
+            return inputChars.hasRemaining() || fill();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            char[] characters = inputChars.array();
+            longLine.setLength(0);
+            while (true) {
+                int start = inputChars.position();
+                int end = inputChars.limit();
+                int lineEnd = start;
+                while (lineEnd < end && characters[lineEnd] != '\n' && characters[lineEnd] != '\r') {
+                    lineEnd++;
+                }
+                if (lineEnd < end) {
+                    inputChars.position(lineEnd + 1);
+                    skipLineFeed = characters[lineEnd] == '\r';
+                    return longLine.isEmpty() ? new String(characters, start, lineEnd - start)
+                            : longLine.append(characters, start, lineEnd - start).toString();
+                }
+                longLine.append(characters, start, end - start);
+                inputChars.position(end);
+                if (!fill()) {
+                    return longLine.toString();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /**
+         * Decodes the next window of the file after all characters of the current one were consumed.
+         *
+         * @return true if at least one character was decoded, false at the end of the file
+         * @throws UncheckedIOException if the file cannot be read or is not valid UTF-8
+         */
+        private boolean fill() {
+            inputChars.clear();
+            try {
+                while (inputChars.position() == 0 && !decoded) {
+                    if (!endOfInput) {
+                        endOfInput = channel.read(inputBytes) < 0;
+                    }
+                    inputBytes.flip();
+                    CoderResult result = decoder.decode(inputBytes, inputChars, endOfInput);
+                    inputBytes.compact();
+                    if (result.isError()) {
+                        result.throwException();
+                    } else if (endOfInput && result.isUnderflow()) {
+                        decoder.flush(inputChars);
+                        decoded = true;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                inputChars.flip();
+            }
+            return inputChars.hasRemaining();
+        }
+    }
+
+    /**
+     * Encodes the characters written to it into the reused byte buffer and writes the bytes to its target whenever the buffer is full.
+     */
+    private final class OutputEncoder extends Writer {
+
+        private OutputStream target;
+
+        /**
+         * Starts encoding a new theory into the given stream.
+         *
+         * @param target the stream receiving the encoded theory
+         */
+        void open(OutputStream target) {
+            this.target = target;
+            encoder.reset();
+            outputChars.clear();
+            outputBytes.clear();
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            while (length > 0) {
+                int part = Math.min(length, outputChars.remaining());
+                outputChars.put(text, offset, offset + part);
+                offset += part;
+                length -= part;
+                if (!outputChars.hasRemaining()) {
+                    encode(false);
+                }
+            }
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                int part = Math.min(length, outputChars.remaining());
+                outputChars.put(buffer, offset, part);
+                offset += part;
+                length -= part;
+                if (!outputChars.hasRemaining()) {
+                    encode(false);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            encode(false);
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            encode(true);
+            CoderResult result = encoder.flush(outputBytes);
+            if (result.isError()) {
+                result.throwException();
+            }
+            writeBytes();
+        }
+
+        /**
+         * Encodes the collected characters and writes the encoded bytes. A high surrogate at the end stays in the character buffer until
+         * its low surrogate arrives, unless the theory ends.
+         *
+         * @param endOfInput whether no more characters follow
+         * @throws IOException if the characters cannot be encoded or the bytes cannot be written
+         */
+        private void encode(boolean endOfInput) throws IOException {
+            outputChars.flip();
+            while (true) {
+                CoderResult result = encoder.encode(outputChars, outputBytes, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                writeBytes();
+                if (result.isUnderflow()) {
+                    break;
+                }
+            }
+            outputChars.compact();
+        }
+
+        private void writeBytes() throws IOException {
+            target.write(outputBytes.array(), 0, outputBytes.position());
+            outputBytes.clear();
+        }
+    }
+}
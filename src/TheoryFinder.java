@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Finds the theories to format below a number of root directories.
+ * <p>
+ * Directories are pruned before they are entered: version control and build output directories, directories matching an exclude glob
+ * and directories ignored by a {@code .gitignore} file are skipped with everything below them. Globs without a {@code /} match the name
+ * of a file or directory, all other globs match its path relative to the root it was found under.
+ */
+final class TheoryFinder {
+
+    private static final Set<String> SKIPPED_DIRECTORIES = Set.of(".git", ".hg", ".svn", "output", "heaps", "node_modules");
+    private static final String THEORY_SUFFIX = ".thy";
+    private static final String CLEAN_SUFFIX = "Clean" + THEORY_SUFFIX;
+
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+    private final boolean honourGitignore;
+
+    /**
+     * A glob matching either the name or the relative path of a file.
+     *
+     * @param matcher   the compiled glob
+     * @param matchName whether the glob is matched against the name instead of the relative path
+     */
+    private record Glob(PathMatcher matcher, boolean matchName) {
+
+        /**
+         * Compiles a glob.
+         *
+         * @param pattern the glob, matched against names if it does not contain a {@code /}
+         * @return the compiled glob
+         */
+        static Glob of(String pattern) {
+            return new Glob(FileSystems.getDefault().getPathMatcher("glob:" + pattern), !pattern.contains("/"));
+        }
+
+        /**
+         * Checks whether a file matches the glob.
+         *
+         * @param relativePath the path of the file relative to its root
+         * @return true if the glob matches, false otherwise
+         */
+        boolean matches(Path relativePath) {
+            Path name = relativePath.getFileName();
+            return matcher.matches(matchName ? (name == null ? relativePath : name) : relativePath);
+        }
+    }
+
+    /**
+     * Creates a finder.
+     *
+     * @param includes        globs of which a theory has to match at least one, no restriction if empty
+     * @param excludes        globs of theories and directories that are skipped
+     * @param honourGitignore whether files and directories ignored by {@code .gitignore} files are skipped
+     */
+    TheoryFinder(List<String> includes, List<String> excludes, boolean honourGitignore) {
+        this.includes = includes.stream().map(Glob::of).toList();
+        this.excludes = excludes.stream().map(Glob::of).toList();
+        this.honourGitignore = honourGitignore;
+    }
+
+    /**
+     * Checks whether a file is a clean file created by the formatter, which is the case if it is named like the clean file of a theory
+     * next to it.
+     *
+     * @param path the path to the file
+     * @return true if the file is the clean file of another theory, false otherwise
+     */
+    static boolean isCleanFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(CLEAN_SUFFIX) && name.length() > CLEAN_SUFFIX.length()
+                && Files.exists(path.resolveSibling(name.substring(0, name.length() - CLEAN_SUFFIX.length()) + THEORY_SUFFIX));
+    }
+
+    /**
+     * Finds all theories below the given roots, each at most once.
+     *
+     * @param roots the directories to search, or single theories
+     * @return the theories in the order they were found
+     * @throws IOException if a directory cannot be read
+     */
+    List<Path> find(List<Path> roots) throws IOException {
+        return find(roots, directory -> {
+        });
+    }
+
+    /**
+     * Finds all theories below the given roots, each at most once, and reports every directory that is searched.
+     *
+     * @param roots       the directories to search, or single theories
+     * @param directories receives every directory that is not pruned
+     * @return the theories in the order they were found
+     * @throws IOException if a directory cannot be read
+     */
+    List<Path> find(List<Path> roots, Consumer<Path> directories) throws IOException {
+        Set<Path> theories = new LinkedHashSet<>();
+        Set<Path> seen = new HashSet<>();
+        for (Path root : roots) {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                private final Deque<GitIgnore> ignores = new ArrayDeque<>();
+
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                    if (!directory.equals(root) && isPruned(directory, root.relativize(directory), ignores)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (honourGitignore) {
+                        ignores.push(GitIgnore.load(directory));
+                    }
+                    directories.accept(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException exception) throws IOException {
+                    if (exception != null) {
+                        throw exception;
+                    }
+                    if (honourGitignore) {
+                        ignores.pop();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    Path relativePath = file.equals(root) ? file.getFileName() : root.relativize(file);
+                    if (attributes.isRegularFile() && file.getFileName().toString().endsWith(THEORY_SUFFIX) && !isCleanFile(file)
+                            && isIncluded(relativePath) && !isExcluded(relativePath) && !isIgnored(ignores, file, false)
+                            && seen.add(file.toAbsolutePath().normalize())) {
+                        theories.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return new ArrayList<>(theories);
+    }
+
+    /**
+     * Checks whether a theory that was not found by searching, such as one declared in a session, would have been found by searching the
+     * given roots. Its path relative to the innermost root containing it has to match the globs, and neither the theory nor a directory
+     * between it and the root may be pruned. A theory outside all roots is matched relative to its own directory.
+     *
+     * @param roots  the directories the theory would have been searched in
+     * @param theory the path to the theory
+     * @return true if searching the roots would have found the theory, false otherwise
+     * @throws IOException if a {@code .gitignore} file cannot be read
+     */
+    boolean isSelected(List<Path> roots, Path theory) throws IOException {
+        Path file = theory.toAbsolutePath().normalize();
+        Path root = roots.stream().map(path -> path.toAbsolutePath().normalize()).filter(file::startsWith)
+                .max(Comparator.comparingInt(Path::getNameCount)).orElse(file.getParent());
+        Path relativePath = file.equals(root) ? file.getFileName() : root.relativize(file);
+
+        Deque<GitIgnore> ignores = new ArrayDeque<>();
+        Path directory = file.equals(root) ? file.getParent() : root;
+        if (honourGitignore) {
+            ignores.push(GitIgnore.load(directory));
+        }
+        for (int i = 0; i < relativePath.getNameCount() - 1; i++) {
+            directory = directory.resolve(relativePath.getName(i));
+            if (isPruned(directory, root.relativize(directory), ignores)) {
+                return false;
+            }
+            if (honourGitignore) {
+                ignores.push(GitIgnore.load(directory));
+            }
+        }
+        return !isCleanFile(file) && isIncluded(relativePath) && !isExcluded(relativePath) && !isIgnored(ignores, file, false);
+    }
+
+    /**
+     * Checks whether a directory below a root is skipped with everything below it.
+     *
+     * @param directory    the directory
+     * @param relativePath the path of the directory relative to its root
+     * @param ignores      the {@code .gitignore} files of the directories above it, innermost first
+     * @return true if the directory is a version control or build output directory, excluded or ignored, false otherwise
+     */
+    private boolean isPruned(Path directory, Path relativePath, Deque<GitIgnore> ignores) {
+        return SKIPPED_DIRECTORIES.contains(directory.getFileName().toString()) || isExcluded(relativePath) || isIgnored(ignores, directory, true);
+    }
+
+    /**
+     * Checks whether the innermost {@code .gitignore} file that decides about a path ignores it.
+     *
+     * @param ignores     the {@code .gitignore} files of the directories above the path, innermost first
+     * @param path        the path to check
+     * @param isDirectory whether the path is a directory
+     * @return true if the path is ignored, false otherwise
+     */
+    private static boolean isIgnored(Deque<GitIgnore> ignores, Path path, boolean isDirectory) {
+        for (GitIgnore ignore : ignores) {
+            Boolean ignored = ignore.isIgnored(path, isDirectory);
+            if (ignored != null) {
+                return ignored;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a theory matches the include globs.
+     *
+     * @param relativePath the path of the theory relative to its root
+     * @return true if no include globs are given or one of them matches, false otherwise
+     */
+    private boolean isIncluded(Path relativePath) {
+        return includes.isEmpty() || includes.stream().anyMatch(glob -> glob.matches(relativePath));
+    }
+
+    /**
+     * Checks whether a theory or directory matches one of the exclude globs.
+     *
+     * @param relativePath the path relative to its root
+     * @return true if an exclude glob matches, false otherwise
+     */
+    private boolean isExcluded(Path relativePath) {
+        return excludes.stream().anyMatch(glob -> glob.matches(relativePath));
+    }
+}
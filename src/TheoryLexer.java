@@ -0,0 +1,210 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a single line of an Isabelle theory into tokens in one linear scan.
+ * Quoted terms, cartouches, symbols, brackets, instantiations and operators are recognised, so spacing rules can work on tokens
+ * instead of repeatedly matching the raw text.
+ */
+final class TheoryLexer {
+
+    private static final String[] OPERATORS = {"+", "-", "*", "div", "=", "::", "`", "@", "#", "|", "<", ">"};
+    private static final String OPERATOR_CHARACTERS = String.join("", OPERATORS).replaceAll("[a-z]", "");
+    private static final String[] INSTANTIATIONS = {"[of", "[OF"};
+
+    /**
+     * The kinds of tokens the lexer distinguishes.
+     */
+    enum Kind {
+        WORD,
+        OPERATOR,
+        OPENING_BRACKET,
+        OPENING_SQUARE_BRACKET,
+        CLOSING_BRACKET,
+        OPENING_QUOTE,
+        CLOSING_QUOTE,
+        OPENING_CARTOUCHE,
+        CLOSING_CARTOUCHE,
+        INSTANTIATION,
+        FACT_LITERAL,
+        COMMENT,
+        COMMA,
+        DOT,
+        SEMICOLON,
+        COLON,
+        OTHER
+    }
+
+    /**
+     * A single token of a line.
+     *
+     * @param kind        the kind of the token
+     * @param text        the text of the token as it appears in the line
+     * @param spaceBefore whether the token was preceded by whitespace in the line
+     */
+    record Token(Kind kind, String text, boolean spaceBefore) {
+    }
+
+    private TheoryLexer() {
+    }
+
+    /**
+     * Splits a line into tokens. Every quotation mark toggles between quoted and unquoted text, starting from the given state.
+     *
+     * @param line         the line to be split
+     * @param insideQuotes whether the start of the line is inside quotes
+     * @return the tokens of the line in order
+     */
+    static List<Token> tokenize(String line, boolean insideQuotes) {
+        List<Token> tokens = new ArrayList<>();
+        boolean quoted = insideQuotes;
+        int length = line.length();
+        int i = 0;
+
+        while (i < length) {
+            boolean spaceBefore = false;
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                spaceBefore = true;
+                i++;
+            }
+            if (i >= length) {
+                break;
+            }
+
+            char currentChar = line.charAt(i);
+            int end = i + 1;
+            Kind kind;
+
+            if (currentChar == '"') {
+                kind = quoted ? Kind.CLOSING_QUOTE : Kind.OPENING_QUOTE;
+                quoted = !quoted;
+            } else if (currentChar == '\\' && line.startsWith("\\<", i) && line.indexOf('>', i) > 0) {
+                end = line.indexOf('>', i) + 1;
+                if (line.startsWith("\\<^", i)) {
+                    end = endOfWord(line, i);
+                    kind = Kind.WORD;
+                } else {
+                    kind = classifySymbol(line, i, end);
+                }
+            } else if (!quoted && line.startsWith("(*", i) && !line.startsWith("(*)", i)) {
+                int commentEnd = line.indexOf("*)", i + 2);
+                end = commentEnd < 0 ? length : commentEnd + 2;
+                kind = Kind.COMMENT;
+            } else if (currentChar == '(' || currentChar == '{') {
+                kind = Kind.OPENING_BRACKET;
+            } else if (currentChar == ')' || currentChar == '}' || currentChar == ']') {
+                kind = Kind.CLOSING_BRACKET;
+            } else if (currentChar == '[') {
+                if (isInstantiation(line, i)) {
+                    end = i + INSTANTIATIONS[0].length();
+                    kind = Kind.INSTANTIATION;
+                } else {
+                    kind = Kind.OPENING_SQUARE_BRACKET;
+                }
+            } else if (currentChar == ',') {
+                kind = Kind.COMMA;
+            } else if (currentChar == ';') {
+                kind = Kind.SEMICOLON;
+            } else if (currentChar == '.') {
+                while (end < length && line.charAt(end) == '.') {
+                    end++;
+                }
+                kind = end - i == 1 ? Kind.DOT : Kind.OTHER;
+            } else if (currentChar == '`' && !quoted && line.indexOf('`', i + 1) > 0) {
+                end = line.indexOf('`', i + 1) + 1;
+                kind = Kind.FACT_LITERAL;
+            } else if (isOperatorCharacter(currentChar)) {
+                while (end < length && isOperatorCharacter(line.charAt(end))) {
+                    end++;
+                }
+                kind = end - i == 1 && currentChar == ':' ? Kind.COLON : Kind.OPERATOR;
+            } else if (isWordCharacter(currentChar)) {
+                end = endOfWord(line, i);
+                kind = isWordOperator(line.substring(i, end)) ? Kind.OPERATOR : Kind.WORD;
+            } else {
+                kind = Kind.OTHER;
+            }
+
+            tokens.add(new Token(kind, line.substring(i, end), spaceBefore));
+            i = end;
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Classifies an Isabelle symbol of the form {@code \<name>} through the {@link IsabelleSymbols symbol table}.
+     *
+     * @param line  the line containing the symbol
+     * @param start the index of the backslash of the symbol
+     * @param end   the index directly after the {@code >} of the symbol
+     * @return the kind of the symbol
+     */
+    private static Kind classifySymbol(String line, int start, int end) {
+        return switch (IsabelleSymbols.classify(line, start, end)) {
+            case OPENING_CARTOUCHE -> Kind.OPENING_CARTOUCHE;
+            case CLOSING_CARTOUCHE -> Kind.CLOSING_CARTOUCHE;
+            case OPENING_BRACKET -> Kind.OPENING_SQUARE_BRACKET;
+            case CLOSING_BRACKET -> Kind.CLOSING_BRACKET;
+            case OPERATOR -> Kind.OPERATOR;
+            case CONTROL, OTHER -> Kind.OTHER;
+        };
+    }
+
+    /**
+     * Finds the end of the word starting at the given index. Words may contain dots for qualified names and control symbols like
+     * {@code \<^sub>}.
+     *
+     * @param line  the line containing the word
+     * @param start the index of the first character of the word
+     * @return the index directly after the word
+     */
+    private static int endOfWord(String line, int start) {
+        int i = start;
+        while (i < line.length()) {
+            char currentChar = line.charAt(i);
+            if (line.startsWith("\\<^", i) && line.indexOf('>', i) > 0) {
+                i = line.indexOf('>', i) + 1;
+            } else if (isWordCharacter(currentChar) || (currentChar == '.' && i > start)) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Checks whether the square bracket at the given index starts an instantiation like {@code [of} or {@code [OF}.
+     *
+     * @param line  the line containing the bracket
+     * @param index the index of the square bracket
+     * @return true if the bracket starts an instantiation, false otherwise
+     */
+    private static boolean isInstantiation(String line, int index) {
+        for (String instantiation : INSTANTIATIONS) {
+            int end = index + instantiation.length();
+            if (line.startsWith(instantiation, index) && (end >= line.length() || !isWordCharacter(line.charAt(end)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOperatorCharacter(char character) {
+        return OPERATOR_CHARACTERS.indexOf(character) >= 0;
+    }
+
+    private static boolean isWordOperator(String word) {
+        for (String operator : OPERATORS) {
+            if (operator.equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWordCharacter(char character) {
+        return Character.isLetterOrDigit(character) || character == '_' || character == '\'' || character == '?';
+    }
+}
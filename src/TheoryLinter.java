@@ -0,0 +1,322 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reports the style findings behind the rules of the formatter that only mark or remove text, without formatting or rewriting anything.
+ * A single pass over a theory follows its quotes, cartouches and comments and finds the keywords of the rules with a
+ * {@link KeywordAutomaton}, and only the lines with a keyword outside of these spans are checked with the match conditions of
+ * {@link CharacterRules}. None of the formatting passes are run, so linting costs little more than reading the theory.
+ * <p>
+ * A linter only holds immutable state, so one instance can be shared between threads.
+ */
+final class TheoryLinter {
+
+    /**
+     * The kinds of findings.
+     */
+    enum Rule {
+        /**
+         * A proof step using {@code apply auto} or {@code apply (auto} without a {@code TODO} on the same line, which {@code add-apply-auto-bonk}
+         * marks.
+         */
+        APPLY_AUTO("apply-auto", FormatterConfig.Rule.ADD_APPLY_AUTO_BONK,
+                "apply auto is usually bad style, see https://proofcraft.org/blog/isabelle-style.html"),
+        /**
+         * A left over call of a solver helper like {@code sledgehammer} at the end of a line or before {@code ([}, which
+         * {@code remove-solver-helpers} removes.
+         */
+        SOLVER_HELPER("solver-helper", FormatterConfig.Rule.REMOVE_SOLVER_HELPERS, "left over %s");
+
+        private final String displayName;
+        private final FormatterConfig.Rule formatterRule;
+        private final String message;
+
+        Rule(String displayName, FormatterConfig.Rule formatterRule, String message) {
+            this.displayName = displayName;
+            this.formatterRule = formatterRule;
+            this.message = message;
+        }
+
+        /**
+         * Returns the name of the rule as it appears in findings.
+         *
+         * @return the name in lower case with hyphens
+         */
+        String displayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * A single finding.
+     *
+     * @param path    the path to the theory
+     * @param line    the number of the line, starting at 1
+     * @param column  the number of the column the finding starts at, starting at 1
+     * @param rule    the rule that found it
+     * @param message the description of the finding
+     */
+    record Finding(Path path, int line, int column, Rule rule, String message) {
+
+        /**
+         * Orders findings by path, line and column.
+         */
+        static final Comparator<Finding> ORDER = Comparator.comparing(Finding::path).thenComparingInt(Finding::line)
+                .thenComparingInt(Finding::column);
+
+        /**
+         * Formats the finding as a line of text in the usual {@code path:line:column: rule: message} form.
+         *
+         * @return the formatted finding
+         */
+        String toText() {
+            return path + ":" + line + ":" + column + ": " + rule.displayName() + ": " + message;
+        }
+
+        /**
+         * Appends the finding as a JSON object.
+         *
+         * @param json the JSON to append to
+         */
+        void appendJson(StringBuilder json) {
+            json.append("{\"path\": ").append(RunReport.quote(path.toString()))
+                    .append(", \"line\": ").append(line)
+                    .append(", \"column\": ").append(column)
+                    .append(", \"rule\": ").append(RunReport.quote(rule.displayName()))
+                    .append(", \"message\": ").append(RunReport.quote(message)).append('}');
+        }
+    }
+
+    private static final String APPLY = "apply";
+    private static final String TODO = "TODO";
+
+    private final KeywordAutomaton automaton;
+    private final boolean applyAuto;
+    private final boolean solverHelpers;
+
+    /**
+     * Creates a linter reporting the findings of the rules enabled in the given configuration.
+     *
+     * @param config the configuration whose enabled rules decide which findings are reported
+     */
+    TheoryLinter(FormatterConfig config) {
+        this.applyAuto = config.isEnabled(Rule.APPLY_AUTO.formatterRule);
+        this.solverHelpers = config.isEnabled(Rule.SOLVER_HELPER.formatterRule);
+        List<String> keywords = new ArrayList<>();
+        if (applyAuto) {
+            keywords.add(APPLY);
+        }
+        if (solverHelpers) {
+            keywords.addAll(List.of(CharacterRules.SOLVER_HELPERS));
+        }
+        this.automaton = new KeywordAutomaton(keywords.toArray(String[]::new));
+    }
+
+    /**
+     * Reads a theory line by line and reports its findings.
+     *
+     * @param path the path to the theory
+     * @return the findings ordered by line and column
+     * @throws IOException if the theory cannot be read
+     */
+    List<Finding> lint(Path path) throws IOException {
+        try (TheoryBuffers.LineReader lines = TheoryBuffers.forCurrentThread().readLines(path)) {
+            return lint(path, lines);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reports the findings of a theory.
+     *
+     * @param path the path reported in the findings
+     * @param text the content of the theory
+     * @return the findings ordered by line and column
+     */
+    List<Finding> lint(Path path, CharSequence text) {
+        return lint(path, text.toString().lines().iterator());
+    }
+
+    /**
+     * Reports the findings of the lines of a theory. Only lines on which the automaton finds a keyword outside of quotes, cartouches and
+     * comments are checked further, by the match conditions of the rules themselves on the line as the formatter sees it.
+     *
+     * @param path  the path reported in the findings
+     * @param lines the lines of the theory
+     * @return the findings ordered by line and column
+     */
+    private List<Finding> lint(Path path, Iterator<String> lines) {
+        List<Finding> findings = new ArrayList<>();
+        Spans spans = new Spans();
+        BitSet code = new BitSet();
+        boolean[] candidate = new boolean[1];
+        int lineNumber = 1;
+
+        while (lines.hasNext()) {
+            String line = lines.next();
+            code.clear();
+            spans.scan(line, 0, line.length(), code);
+            candidate[0] = false;
+            if (!code.isEmpty()) {
+                automaton.scan(line, 0, line.length(), (keyword, matchEnd) -> {
+                    if (code.get(matchEnd - automaton.keyword(keyword).length())) {
+                        candidate[0] = true;
+                    }
+                });
+            }
+            if (candidate[0]) {
+                lintLine(path, lineNumber, line, 0, line.length(), code, findings);
+            }
+            lineNumber++;
+        }
+
+        findings.sort(Finding.ORDER);
+        return findings;
+    }
+
+    /**
+     * Checks a line the way {@link CharacterRules#ADD_APPLY_AUTO_BONK} and {@link CharacterRules#REMOVE_SOLVER_HELPERS} see it, trimmed
+     * and with runs of whitespace replaced by a single space, and reports the matches that start outside of quotes, cartouches and
+     * comments.
+     *
+     * @param path       the path reported in the findings
+     * @param lineNumber the number of the line, starting at 1
+     * @param text       the theory
+     * @param lineStart  the index of the first character of the line
+     * @param lineEnd    the index after the last character of the line
+     * @param code       the offsets from the start of the line of the characters outside of quotes, cartouches and comments
+     * @param findings   the findings to add to
+     */
+    private void lintLine(Path path, int lineNumber, CharSequence text, int lineStart, int lineEnd, BitSet code,
+                          List<Finding> findings) {
+        int start = lineStart;
+        int end = lineEnd;
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        StringBuilder normalized = new StringBuilder(end - start);
+        int[] columns = new int[end - start];
+        for (int i = start; i < end; i++) {
+            int runEnd = i;
+            while (runEnd < end && CharacterRules.isWhitespace(text.charAt(runEnd))) {
+                runEnd++;
+            }
+            columns[normalized.length()] = i - lineStart;
+            if (runEnd - i >= 2) {
+                normalized.append(' ');
+                i = runEnd - 1;
+            } else {
+                normalized.append(text.charAt(i));
+            }
+        }
+        String line = normalized.toString();
+
+        boolean marked = false;
+        if (applyAuto && !line.contains(TODO)) {
+            for (int i = line.indexOf("apply "); i >= 0; i = line.indexOf("apply ", i + 1)) {
+                if (code.get(columns[i]) && CharacterRules.isApplyAuto(line, i)) {
+                    findings.add(new Finding(path, lineNumber, columns[i] + 1, Rule.APPLY_AUTO, Rule.APPLY_AUTO.message));
+                    marked = true;
+                }
+            }
+        }
+        if (solverHelpers) {
+            for (int i = 0; i < line.length(); i++) {
+                int helperLength = code.get(columns[i]) ? CharacterRules.solverHelperAt(line, i) : 0;
+                if (helperLength > 0 && (i + helperLength < line.length() || !marked)) {
+                    findings.add(new Finding(path, lineNumber, columns[i] + 1, Rule.SOLVER_HELPER,
+                            Rule.SOLVER_HELPER.message.formatted(line.substring(i, i + helperLength))));
+                    i += helperLength - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Follows the quotes, cartouches and comments of a theory from line to line, like {@link TheoryLexer} and {@link LineSummary} do
+     * within a line. Cartouches and comments nest, quotes do not, and nothing is recognized inside a comment except its own delimiters.
+     */
+    private static final class Spans {
+
+        private boolean insideQuotes;
+        private int openCartouches;
+        private int openComments;
+
+        /**
+         * Scans a line and records which of its characters are outside of quotes, cartouches and comments.
+         *
+         * @param text  the theory
+         * @param start the index of the first character of the line
+         * @param end   the index after the last character of the line
+         * @param code  the set to add the offsets from the start of the line of the characters outside of all spans to
+         */
+        void scan(CharSequence text, int start, int end, BitSet code) {
+            int i = start;
+            while (i < end) {
+                char character = text.charAt(i);
+                int next = i + 1;
+                int cartouche = 0;
+                if (character == '\\') {
+                    int symbolEnd = IsabelleSymbols.symbolEnd(text, i);
+                    if (symbolEnd > 0 && symbolEnd <= end) {
+                        IsabelleSymbols.Kind kind = IsabelleSymbols.kind(IsabelleSymbols.lookup(text, i, symbolEnd));
+                        cartouche = kind == IsabelleSymbols.Kind.OPENING_CARTOUCHE ? 1
+                                : kind == IsabelleSymbols.Kind.CLOSING_CARTOUCHE ? -1 : 0;
+                        next = symbolEnd;
+                    }
+                } else if (character == '\u2039') {
+                    cartouche = 1;
+                } else if (character == '\u203A') {
+                    cartouche = -1;
+                }
+
+                if (openComments > 0) {
+                    if (startsWith(text, i, end, "*)")) {
+                        openComments--;
+                        next = i + 2;
+                    } else if (startsWith(text, i, end, "(*")) {
+                        openComments++;
+                        next = i + 2;
+                    }
+                } else if (openCartouches > 0) {
+                    openCartouches += cartouche;
+                } else if (insideQuotes) {
+                    insideQuotes = character != '"';
+                } else if (character == '"') {
+                    insideQuotes = true;
+                } else if (cartouche > 0) {
+                    openCartouches = 1;
+                } else if (startsWith(text, i, end, "(*") && !startsWith(text, i, end, "(*)")) {
+                    openComments = 1;
+                    next = i + 2;
+                } else {
+                    code.set(i - start, next - start);
+                }
+                i = next;
+            }
+        }
+
+        private static boolean startsWith(CharSequence text, int index, int end, String prefix) {
+            if (index + prefix.length() > end) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (text.charAt(index + i) != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
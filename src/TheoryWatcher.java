@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches the selected theories and reformats every theory shortly after it changed, until the process is stopped.
+ * <p>
+ * Every directory searched for theories is registered with a {@link WatchService}, so the watcher blocks without using any CPU while
+ * nothing changes. Editors often save a file in several steps, so the events of a theory are coalesced: it is formatted once no further
+ * event arrived for the debounce window. Formatting happens on a single background worker, while the watching thread keeps collecting
+ * events. The clean files and temporary files written by the formatter are recognized and never cause another formatting.
+ * <p>
+ * New directories, new theories, overflowing events and changed {@code .gitignore}, {@code ROOT} and {@code ROOTS} files make the
+ * watcher search the selection again, once per burst of such events. Theories that were not selected before are formatted after the
+ * search.
+ */
+final class TheoryWatcher {
+
+    private static final Set<String> SELECTION_FILES = Set.of(".gitignore", "ROOT", "ROOTS");
+    private static final String THEORY_SUFFIX = ".thy";
+
+    /**
+     * Finds the selected theories.
+     */
+    @FunctionalInterface
+    interface Selection {
+
+        /**
+         * Finds the selected theories and the directories that have to be watched for them.
+         *
+         * @param directories receives the directories to watch
+         * @return the selected theories
+         * @throws IOException if a directory or a session file cannot be read
+         */
+        List<Path> find(Consumer<Path> directories) throws IOException;
+    }
+
+    private final Selection selection;
+    private final long debounceNanos;
+    private final BatchRunner.FileTask task;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final Map<Path, Long> pendingTheories = new HashMap<>();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "theory-watcher-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Set<Path> theories = Set.of();
+    private long searchDeadline = -1;
+
+    /**
+     * Creates a watcher.
+     *
+     * @param selection the selection of the theories to watch
+     * @param debounce  the time without events after which a changed theory is formatted
+     * @param task      formats a single theory
+     */
+    TheoryWatcher(Selection selection, Duration debounce, BatchRunner.FileTask task) {
+        this.selection = selection;
+        this.debounceNanos = debounce.toNanos();
+        this.task = task;
+    }
+
+    /**
+     * Watches the theories until the thread is interrupted.
+     *
+     * @throws IOException          if the watch service cannot be created or the first search fails
+     * @throws InterruptedException if the thread is interrupted while waiting for events
+     */
+    void watch() throws IOException, InterruptedException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            search(watchService);
+            System.out.println("Watching " + theories.size() + " theories in " + watchedDirectories.size() + " directories");
+            while (true) {
+                long deadline = nextDeadline();
+                WatchKey key = deadline == Long.MAX_VALUE ? watchService.take()
+                        : watchService.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+                dispatchDueWork(watchService);
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed while the process is stopped
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the point in time at which the next theory or search is due.
+     *
+     * @return the deadline in {@link System#nanoTime()} units, or {@link Long#MAX_VALUE} if nothing is pending
+     */
+    private long nextDeadline() {
+        long deadline = searchDeadline < 0 ? Long.MAX_VALUE : searchDeadline;
+        for (long theoryDeadline : pendingTheories.values()) {
+            deadline = Math.min(deadline, theoryDeadline);
+        }
+        return deadline;
+    }
+
+    /**
+     * Records the events of a directory, postponing the theories they concern by the debounce window.
+     *
+     * @param key the key of the directory
+     */
+    private void handleEvents(WatchKey key) {
+        Path directory = watchedDirectories.get(key);
+        long deadline = System.nanoTime() + debounceNanos;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                searchDeadline = deadline;
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            String name = path.getFileName().toString();
+            if (theories.contains(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    pendingTheories.remove(path);
+                } else {
+                    pendingTheories.put(path, deadline);
+                }
+            } else if (SELECTION_FILES.contains(name)
+                    || event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)
+                    || name.endsWith(THEORY_SUFFIX) && event.kind() != StandardWatchEventKinds.ENTRY_DELETE
+                    && !TheoryFinder.isCleanFile(path)) {
+                searchDeadline = deadline;
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    /**
+     * Searches the selection again if that is due and hands all theories whose debounce window passed to the worker.
+     *
+     * @param watchService the watch service new directories are registered with
+     */
+    private void dispatchDueWork(WatchService watchService) {
+        long now = System.nanoTime();
+        if (searchDeadline >= 0 && searchDeadline - now <= 0) {
+            searchDeadline = -1;
+            Set<Path> previousTheories = theories;
+            try {
+                search(watchService);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to search for theories: " + e);
+            }
+            for (Path theory : theories) {
+                if (!previousTheories.contains(theory)) {
+                    pendingTheories.put(theory, now);
+                }
+            }
+        }
+
+        List<Path> dueTheories = new ArrayList<>();
+        for (Iterator<Map.Entry<Path, Long>> iterator = pendingTheories.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Path, Long> entry = iterator.next();
+            if (entry.getValue() - now <= 0) {
+                dueTheories.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+        for (Path theory : dueTheories) {
+            worker.execute(() -> format(theory));
+        }
+    }
+
+    /**
+     * Formats a theory on the worker and reports the outcome.
+     *
+     * @param theory the theory
+     */
+    private void format(Path theory) {
+        if (!Files.isRegularFile(theory)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            task.process(theory);
+            System.out.println("Formatted " + theory + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to format " + theory + ": " + e);
+        }
+    }
+
+    /**
+     * Searches the selection and registers all directories to watch. Directories that are registered already keep their key.
+     *
+     * @param watchService the watch service to register the directories with
+     * @throws IOException if the selection cannot be searched or a directory cannot be registered
+     */
+    private void search(WatchService watchService) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        List<Path> found = selection.find(directories::add);
+        for (Path directory : directories) {
+            WatchKey key = normalize(directory).register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.put(key, normalize(directory));
+        }
+        Set<Path> selected = new HashSet<>();
+        for (Path theory : found) {
+            selected.add(normalize(theory));
+        }
+        theories = selected;
+    }
+
+    /**
+     * Makes a path comparable with the paths resolved from watch events.
+     *
+     * @param path the path
+     * @return the absolute, normalized path
+     */
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,304 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates unified diffs between two versions of a text, as printed by {@code diff -u}.
+ * <p>
+ * Formatting changes lines all over a theory, but every change is local. The texts are therefore first split at the lines that occur
+ * exactly once in both of them, keeping the longest sequence of such lines that appear in the same order, as in patience diff. Only
+ * the small gaps between these anchors are compared with the linear space variant of Myers' algorithm, which splits a gap at the
+ * middle of a shortest edit script and recurses on both halves. Gaps without any common line are replaced as a whole.
+ */
+final class UnifiedDiff {
+
+    private static final int CONTEXT_LINES = 3;
+
+    private final int[] oldLines;
+    private final int[] newLines;
+    private final boolean[] removed;
+    private final boolean[] inserted;
+    private final int[] oldCounts;
+    private final int[] newCounts;
+    private final int[] newPositions;
+
+    /**
+     * Creates the comparison of two versions, identifying every distinct line by a number so lines are compared in constant time.
+     *
+     * @param oldText the lines of the old version
+     * @param newText the lines of the new version
+     */
+    private UnifiedDiff(List<String> oldText, List<String> newText) {
+        Map<String, Integer> ids = new HashMap<>();
+        oldLines = oldText.stream().mapToInt(line -> ids.computeIfAbsent(line, l -> ids.size())).toArray();
+        newLines = newText.stream().mapToInt(line -> ids.computeIfAbsent(line, l -> ids.size())).toArray();
+        removed = new boolean[oldLines.length];
+        inserted = new boolean[newLines.length];
+        oldCounts = new int[ids.size()];
+        newCounts = new int[ids.size()];
+        newPositions = new int[ids.size()];
+    }
+
+    /**
+     * Creates a unified diff.
+     *
+     * @param name    the name of the compared file, used in the header
+     * @param oldText the old version
+     * @param newText the new version
+     * @return the unified diff, empty if the versions consist of the same lines
+     */
+    static String of(String name, String oldText, String newText) {
+        List<String> oldLines = oldText.lines().toList();
+        List<String> newLines = newText.lines().toList();
+        UnifiedDiff diff = new UnifiedDiff(oldLines, newLines);
+        diff.compare(0, diff.oldLines.length, 0, diff.newLines.length);
+        return diff.format(name, oldLines, newLines);
+    }
+
+    /**
+     * Marks the lines that are removed from or inserted into a range of the old and the new version.
+     *
+     * @param oldStart the index of the first line of the range in the old version
+     * @param oldEnd   the index after the last line of the range in the old version
+     * @param newStart the index of the first line of the range in the new version
+     * @param newEnd   the index after the last line of the range in the new version
+     */
+    private void compare(int oldStart, int oldEnd, int newStart, int newEnd) {
+        while (oldStart < oldEnd && newStart < newEnd && oldLines[oldStart] == newLines[newStart]) {
+            oldStart++;
+            newStart++;
+        }
+        while (oldStart < oldEnd && newStart < newEnd && oldLines[oldEnd - 1] == newLines[newEnd - 1]) {
+            oldEnd--;
+            newEnd--;
+        }
+
+        if (oldStart == oldEnd || newStart == newEnd) {
+            replace(oldStart, oldEnd, newStart, newEnd);
+            return;
+        }
+
+        int[][] anchors = uniqueCommonLines(oldStart, oldEnd, newStart, newEnd);
+        if (anchors == null) {
+            replace(oldStart, oldEnd, newStart, newEnd);
+        } else if (anchors[0].length > 0) {
+            for (int i = 0; i < anchors[0].length; i++) {
+                compare(oldStart, anchors[0][i], newStart, anchors[1][i]);
+                oldStart = anchors[0][i] + 1;
+                newStart = anchors[1][i] + 1;
+            }
+            compare(oldStart, oldEnd, newStart, newEnd);
+        } else {
+            int[] split = middleOfEditScript(oldStart, oldEnd, newStart, newEnd);
+            compare(oldStart, split[0], newStart, split[1]);
+            compare(split[0], oldEnd, split[1], newEnd);
+        }
+    }
+
+    /**
+     * Marks all lines of a range as replaced.
+     *
+     * @param oldStart the index of the first line of the range in the old version
+     * @param oldEnd   the index after the last line of the range in the old version
+     * @param newStart the index of the first line of the range in the new version
+     * @param newEnd   the index after the last line of the range in the new version
+     */
+    private void replace(int oldStart, int oldEnd, int newStart, int newEnd) {
+        Arrays.fill(removed, oldStart, oldEnd, true);
+        Arrays.fill(inserted, newStart, newEnd, true);
+    }
+
+    /**
+     * Finds the longest sequence of lines that occur exactly once in both ranges and appear in the same order in both of them.
+     *
+     * @param oldStart the index of the first line of the range in the old version
+     * @param oldEnd   the index after the last line of the range in the old version
+     * @param newStart the index of the first line of the range in the new version
+     * @param newEnd   the index after the last line of the range in the new version
+     * @return the indices of the lines in the old version and in the new version in ascending order, or null if the ranges do not have a
+     * single line in common
+     */
+    private int[][] uniqueCommonLines(int oldStart, int oldEnd, int newStart, int newEnd) {
+        boolean anyCommon = false;
+        for (int i = oldStart; i < oldEnd; i++) {
+            oldCounts[oldLines[i]]++;
+        }
+        for (int i = newStart; i < newEnd; i++) {
+            newCounts[newLines[i]]++;
+            newPositions[newLines[i]] = i;
+            anyCommon |= oldCounts[newLines[i]] > 0;
+        }
+
+        int[] candidates = new int[oldEnd - oldStart];
+        int numberOfCandidates = 0;
+        for (int i = oldStart; i < oldEnd; i++) {
+            if (oldCounts[oldLines[i]] == 1 && newCounts[oldLines[i]] == 1) {
+                candidates[numberOfCandidates++] = i;
+            }
+        }
+        for (int i = oldStart; i < oldEnd; i++) {
+            oldCounts[oldLines[i]] = 0;
+        }
+        for (int i = newStart; i < newEnd; i++) {
+            newCounts[newLines[i]] = 0;
+        }
+        if (!anyCommon) {
+            return null;
+        }
+
+        // Longest increasing subsequence of the positions in the new version, by patience sorting
+        int[] pileTops = new int[numberOfCandidates];
+        int[] predecessors = new int[numberOfCandidates];
+        int piles = 0;
+        for (int i = 0; i < numberOfCandidates; i++) {
+            int position = newPositions[oldLines[candidates[i]]];
+            int low = 0;
+            int high = piles;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (newPositions[oldLines[candidates[pileTops[middle]]]] < position) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            predecessors[i] = low > 0 ? pileTops[low - 1] : -1;
+            pileTops[low] = i;
+            piles = Math.max(piles, low + 1);
+        }
+
+        int[][] anchors = new int[2][piles];
+        for (int i = piles - 1, candidate = piles > 0 ? pileTops[piles - 1] : -1; i >= 0; i--, candidate = predecessors[candidate]) {
+            anchors[0][i] = candidates[candidate];
+            anchors[1][i] = newPositions[oldLines[candidates[candidate]]];
+        }
+        return anchors;
+    }
+
+    /**
+     * Finds a point on a shortest edit script between two ranges by searching forwards from their starts and backwards from their ends
+     * until the searches overlap. The ranges must differ in their first and in their last line, so the point is neither the start nor
+     * the end of the ranges.
+     *
+     * @param oldStart the index of the first line of the range in the old version
+     * @param oldEnd   the index after the last line of the range in the old version
+     * @param newStart the index of the first line of the range in the new version
+     * @param newEnd   the index after the last line of the range in the new version
+     * @return the indices of the point in the old and the new version
+     */
+    private int[] middleOfEditScript(int oldStart, int oldEnd, int newStart, int newEnd) {
+        int oldLength = oldEnd - oldStart;
+        int newLength = newEnd - newStart;
+        int delta = oldLength - newLength;
+        boolean odd = (delta & 1) != 0;
+        int maxEdits = (oldLength + newLength + 1) / 2;
+        int offset = maxEdits + 1;
+        int[] forward = new int[2 * maxEdits + 3];
+        int[] backward = new int[2 * maxEdits + 3];
+
+        for (int edits = 0; edits <= maxEdits; edits++) {
+            for (int k = -edits; k <= edits; k += 2) {
+                int x = k == -edits || (k != edits && forward[offset + k - 1] < forward[offset + k + 1])
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int snakeX = x;
+                int snakeY = y;
+                while (x < oldLength && y < newLength && oldLines[oldStart + x] == newLines[newStart + y]) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                int c = delta - k;
+                if (odd && c >= -(edits - 1) && c <= edits - 1 && x + backward[offset + c] >= oldLength) {
+                    return new int[]{oldStart + snakeX, newStart + snakeY};
+                }
+            }
+
+            for (int c = -edits; c <= edits; c += 2) {
+                int x = c == -edits || (c != edits && backward[offset + c - 1] < backward[offset + c + 1])
+                        ? backward[offset + c + 1] : backward[offset + c - 1] + 1;
+                int y = x - c;
+                int snakeX = x;
+                int snakeY = y;
+                while (x < oldLength && y < newLength && oldLines[oldEnd - 1 - x] == newLines[newEnd - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[offset + c] = x;
+                int k = delta - c;
+                if (!odd && k >= -edits && k <= edits && x + forward[offset + k] >= oldLength) {
+                    return new int[]{oldEnd - snakeX, newEnd - snakeY};
+                }
+            }
+        }
+        throw new IllegalStateException("The forward and backward searches did not meet");
+    }
+
+    /**
+     * Formats the marked lines as hunks with {@link #CONTEXT_LINES} unchanged lines around every change.
+     *
+     * @param name     the name of the compared file
+     * @param oldText  the lines of the old version
+     * @param newText  the lines of the new version
+     * @return the unified diff, empty if no line changed
+     */
+    private String format(String name, List<String> oldText, List<String> newText) {
+        StringBuilder diff = new StringBuilder();
+        int oldIndex = 0;
+        int newIndex = 0;
+        while (true) {
+            int changeOld = oldIndex;
+            int changeNew = newIndex;
+            while (changeOld < removed.length && changeNew < inserted.length && !removed[changeOld] && !inserted[changeNew]) {
+                changeOld++;
+                changeNew++;
+            }
+            if (changeOld == removed.length && changeNew == inserted.length) {
+                return diff.toString();
+            }
+            if (diff.isEmpty()) {
+                diff.append("--- ").append(name).append('\n').append("+++ ").append(name).append(" (formatted)\n");
+            }
+
+            int hunkOld = Math.max(oldIndex, changeOld - CONTEXT_LINES);
+            int hunkNew = changeNew - (changeOld - hunkOld);
+            StringBuilder hunk = new StringBuilder();
+            oldIndex = hunkOld;
+            newIndex = hunkNew;
+            int unchangedInARow = 0;
+            while (unchangedInARow <= 2 * CONTEXT_LINES && (oldIndex < removed.length || newIndex < inserted.length)) {
+                if (oldIndex < removed.length && removed[oldIndex]) {
+                    hunk.append('-').append(oldText.get(oldIndex++)).append('\n');
+                    unchangedInARow = 0;
+                } else if (newIndex < inserted.length && inserted[newIndex]) {
+                    hunk.append('+').append(newText.get(newIndex++)).append('\n');
+                    unchangedInARow = 0;
+                } else {
+                    hunk.append(' ').append(oldText.get(oldIndex++)).append('\n');
+                    newIndex++;
+                    unchangedInARow++;
+                }
+            }
+
+            int trailingContext = Math.max(0, unchangedInARow - CONTEXT_LINES);
+            oldIndex -= trailingContext;
+            newIndex -= trailingContext;
+            for (int i = 0; i < trailingContext; i++) {
+                hunk.setLength(hunk.lastIndexOf("\n", hunk.length() - 2) + 1);
+            }
+            diff.append("@@ -").append(range(hunkOld, oldIndex)).append(" +").append(range(hunkNew, newIndex)).append(" @@\n").append(hunk);
+        }
+    }
+
+    /**
+     * Formats the range of lines of a hunk in one version.
+     *
+     * @param start the index of the first line of the hunk
+     * @param end   the index after the last line of the hunk
+     * @return the range as {@code <first line>,<number of lines>}, where the first line of an empty range is the line before it
+     */
+    private static String range(int start, int end) {
+        return (end == start ? start : start + 1) + "," + (end - start);
+    }
+}